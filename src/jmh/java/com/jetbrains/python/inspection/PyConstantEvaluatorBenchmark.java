@@ -0,0 +1,53 @@
+package com.jetbrains.python.inspection;
+
+import com.jetbrains.python.inspection.PyConstantIr.Op;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full evaluation of synthetic conditions: {@code width} comparisons joined by {@code and},
+ * each comparing a left-deep chain of {@code depth} arithmetic operations with a constant.
+ * The IR is built once, so only the evaluator is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PyConstantEvaluatorBenchmark {
+    private static final Op[] CHAIN_OPS = {Op.ADD, Op.MUL, Op.FLOORDIV, Op.MOD};
+    private static final long[] CHAIN_OPERANDS = {7, 3, 2, 1_000_003};
+
+    @Param({"1", "16", "256", "4096"})
+    public int depth;
+
+    @Param({"1", "8", "64"})
+    public int width;
+
+    private PyConstantEvaluator evaluator;
+    private PyConstantIr ir;
+
+    @Setup
+    public void setUp() {
+        evaluator = new PyConstantEvaluator(1 << 20, TimeUnit.MINUTES.toNanos(1), () -> {});
+        PyConstantIr.Builder builder = new PyConstantIr.Builder();
+        int condition = -1;
+        for (int i = 0; i < width; i++) {
+            int chain = builder.constant(PyValue.of(i));
+            for (int j = 0; j < depth; j++) {
+                int k = j % CHAIN_OPS.length;
+                chain = builder.binary(CHAIN_OPS[k], chain, builder.constant(PyValue.of(CHAIN_OPERANDS[k])));
+            }
+            int comparison = builder.binary(Op.GE, chain, builder.constant(PyValue.MINUS_ONE));
+            condition = condition < 0 ? comparison : builder.binary(Op.AND, condition, comparison);
+        }
+        ir = builder.build();
+    }
+
+    @Benchmark
+    public PyConstantEvaluator.PyEvaluationResult evaluate() {
+        return evaluator.evaluate(ir);
+    }
+}
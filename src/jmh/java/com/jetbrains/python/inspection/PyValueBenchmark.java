@@ -0,0 +1,142 @@
+package com.jetbrains.python.inspection;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Arithmetic of {@link PyValue} for operands of different magnitude:
+ * small ones stay in the flyweight cache, medium ones overflow {@code long} in products
+ * and huge ones are {@link BigInteger}s from the start.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PyValueBenchmark {
+
+    @Param({"small", "medium", "huge"})
+    public String size;
+
+    private PyValue left;
+    private PyValue right;
+    private PyValue exponent;
+    private PyValue shift;
+
+    @Setup
+    public void setUp() {
+        switch (size) {
+            case "small":
+                left = PyValue.of(937);
+                right = PyValue.of(17);
+                exponent = PyValue.of(3);
+                shift = PyValue.of(5);
+                break;
+            case "medium":
+                left = PyValue.of(3_037_000_493L);
+                right = PyValue.of(4_000_000_007L);
+                exponent = PyValue.of(7);
+                shift = PyValue.of(40);
+                break;
+            case "huge":
+                left = PyValue.of(BigInteger.valueOf(3).pow(2000).add(BigInteger.ONE));
+                right = PyValue.of(BigInteger.valueOf(7).pow(1100).negate());
+                exponent = PyValue.of(5);
+                shift = PyValue.of(1000);
+                break;
+            default:
+                throw new IllegalArgumentException(size);
+        }
+    }
+
+    @Benchmark
+    public PyValue add() {
+        return left.add(right);
+    }
+
+    @Benchmark
+    public PyValue multiply() {
+        return left.multiply(right);
+    }
+
+    @Benchmark
+    public PyValue divide() {
+        return left.divide(right);
+    }
+
+    @Benchmark
+    public PyValue floordivide() {
+        return left.floordivide(right);
+    }
+
+    @Benchmark
+    public PyValue mod() {
+        return left.mod(right);
+    }
+
+    @Benchmark
+    public PyValue pow() {
+        return left.pow(exponent);
+    }
+
+    @Benchmark
+    public PyValue shiftLeft() {
+        return left.shiftLeft(shift);
+    }
+
+    @Benchmark
+    public PyValue shiftRight() {
+        return left.shiftRight(shift);
+    }
+
+    /**
+     * {@link PyValue#compareTo} is exact across representations, these are the mixes that take different paths.
+     */
+    @State(Scope.Thread)
+    public static class Comparison {
+        @Param({"long-long", "long-double", "big-long", "big-double", "double-double"})
+        public String kinds;
+
+        private PyValue left;
+        private PyValue right;
+
+        @Setup
+        public void setUp() {
+            BigInteger big = BigInteger.ONE.shiftLeft(100).add(BigInteger.ONE);
+            switch (kinds) {
+                case "long-long":
+                    left = PyValue.of(123_456_789_012L);
+                    right = PyValue.of(123_456_789_013L);
+                    break;
+                case "long-double":
+                    // Above 2**53, so the double can't be compared through a conversion of the long
+                    left = PyValue.of((1L << 60) + 1);
+                    right = PyValue.of((double) (1L << 60));
+                    break;
+                case "big-long":
+                    left = PyValue.of(big);
+                    right = PyValue.of(Long.MAX_VALUE);
+                    break;
+                case "big-double":
+                    left = PyValue.of(big);
+                    right = PyValue.of(new BigDecimal(big).doubleValue());
+                    break;
+                case "double-double":
+                    left = PyValue.of(0.1);
+                    right = PyValue.of(0.30000000000000004);
+                    break;
+                default:
+                    throw new IllegalArgumentException(kinds);
+            }
+        }
+    }
+
+    @Benchmark
+    public int compareTo(Comparison comparison) {
+        return comparison.left.compareTo(comparison.right);
+    }
+}
@@ -0,0 +1,171 @@
+package org.jetbrains.intellij
+
+import org.jetbrains.annotations.NotNull
+
+import java.security.MessageDigest
+
+import static org.jetbrains.intellij.IntelliJPlugin.LOG
+
+/**
+ * Application class-data sharing for the IDE JVM started by runIde. The first run with a new classpath
+ * archives the classes it loads from it, later runs map the archive instead of loading them from jars.
+ * Only the jars given with {@code -cp} are archived, i.e. the IDE bootstrap classes: the IDE loads everything else,
+ * plugins included, with its own class loaders, which the JVM doesn't archive.
+ *
+ * Archives are keyed by the IDE build number, the JVM and the content of its classpath jars,
+ * archives with another key are removed. Java 13 and later write the archive themselves when the JVM exits.
+ * Java 10 to 12 record the list of loaded classes, and the archive is dumped from it by a separate JVM, which
+ * needs the exact classpath of the run. Java 8 and 9 don't support sharing of application classes.
+ * If an archive cannot be created, runs with the same key don't try again.
+ */
+class ClassDataSharing {
+    private static final String ARCHIVE_EXTENSION = '.jsa'
+    private static final String CLASS_LIST_EXTENSION = '.classlist'
+    private static final String FAILED_EXTENSION = '.failed'
+    private static final List<String> EXTENSIONS = [ARCHIVE_EXTENSION, CLASS_LIST_EXTENSION, FAILED_EXTENSION]
+    private static final String PREFIX = 'ide-'
+
+    private final File directory
+    private final String javaExecutable
+    private final int javaVersion
+    private final List<File> classpath
+    private final String name
+    private boolean archiving
+
+    /**
+     * @param directory directory for the archives of one sandbox
+     * @param classpath all the JVM gets with {@code -cp}, Java 10 to 12 dump the archive with the same classpath
+     */
+    ClassDataSharing(@NotNull File directory, @NotNull String javaExecutable, @NotNull String buildNumber,
+                     @NotNull List<File> classpath) {
+        this.directory = directory
+        this.javaExecutable = javaExecutable
+        this.javaVersion = javaVersion(javaExecutable)
+        this.classpath = classpath
+        def key = new StringBuilder("$buildNumber\n$javaExecutable\n$javaVersion\n")
+        // Directories are not archived, so their content doesn't matter
+        classpath.each { key.append("$it.absolutePath:${it.file ? Utils.sha256(it) : ''}\n") }
+        def digest = MessageDigest.getInstance('SHA-256').digest(key.toString().getBytes('UTF-8'))
+        this.name = PREFIX + digest.encodeHex().toString().substring(0, 16)
+    }
+
+    boolean isSupported() {
+        return javaVersion >= 10
+    }
+
+    @NotNull
+    File getArchiveFile() {
+        new File(directory, name + ARCHIVE_EXTENSION)
+    }
+
+    @NotNull
+    private File getClassListFile() {
+        new File(directory, name + CLASS_LIST_EXTENSION)
+    }
+
+    @NotNull
+    private File getFailedFile() {
+        new File(directory, name + FAILED_EXTENSION)
+    }
+
+    /**
+     * Dumps the archive from a class list left by an earlier run first, if that run didn't get to it.
+     *
+     * @return arguments mapping the archive, or creating it if there is none for the key yet
+     */
+    @NotNull
+    List<String> jvmArgs() {
+        if (!supported) {
+            LOG.info("Class data sharing is not available for the IDE JVM: Java $javaVersion at $javaExecutable")
+            return []
+        }
+        removeStale()
+        dumpArchive()
+        List<String> result = javaVersion == 10 ? ['-XX:+UseAppCDS'] : []
+        if (archiveFile.exists()) {
+            // A broken archive is ignored rather than failing the start
+            return result + ["-XX:SharedArchiveFile=$archiveFile.absolutePath".toString(), '-Xshare:auto']
+        } else if (failedFile.exists()) {
+            return []
+        }
+        directory.mkdirs()
+        LOG.info("Creating class data sharing archive $archiveFile")
+        archiving = true
+        if (javaVersion >= 13) {
+            return ["-XX:ArchiveClassesAtExit=$archiveFile.absolutePath".toString()]
+        }
+        return result + ["-XX:DumpLoadedClassList=$classListFile.absolutePath".toString()]
+    }
+
+    /**
+     * Creates the archive after a run started with {@link #jvmArgs}, or marks it as failed.
+     *
+     * @param exited true if the JVM exited normally, otherwise a JVM writing the archive at exit may not have done it
+     */
+    void afterRun(boolean exited) {
+        if (javaVersion < 13) {
+            dumpArchive()
+        } else if (archiving && exited && !archiveFile.exists()) {
+            LOG.warn("Cannot create class data sharing archive $archiveFile, IDE classes will be loaded from jars")
+            failedFile.createNewFile()
+        }
+        archiving = false
+    }
+
+    /**
+     * Dumps the archive from the class list recorded by the last run, if there is one.
+     */
+    private void dumpArchive() {
+        def classList = classListFile
+        if (javaVersion >= 13 || archiveFile.exists() || !classList.exists()) {
+            return
+        }
+        List<String> command = [javaExecutable]
+        if (javaVersion == 10) {
+            command += '-XX:+UseAppCDS'
+        }
+        command += ['-Xshare:dump', "-XX:SharedClassListFile=$classList.absolutePath".toString(),
+                    "-XX:SharedArchiveFile=$archiveFile.absolutePath".toString(),
+                    '-cp', classpath.collect { it.absolutePath }.join(File.pathSeparator)]
+        def process = new ProcessBuilder(command).redirectErrorStream(true).start()
+        def output = process.inputStream.text
+        if (process.waitFor() != 0 || !archiveFile.exists()) {
+            LOG.warn("Cannot create class data sharing archive $archiveFile, IDE classes will be loaded from jars")
+            LOG.debug(output)
+            archiveFile.delete()
+            failedFile.createNewFile()
+        }
+        classList.delete()
+    }
+
+    private void removeStale() {
+        directory.listFiles()?.each { file ->
+            if (file.name.startsWith(PREFIX) && !file.name.startsWith(name)
+                    && EXTENSIONS.any { file.name.endsWith(it) }) {
+                file.delete()
+            }
+        }
+    }
+
+    /**
+     * @return major Java version from the {@code release} file of the Java home, 0 if it is not known
+     */
+    static int javaVersion(@NotNull String javaExecutable) {
+        def home = new File(javaExecutable).canonicalFile.parentFile?.parentFile
+        if (home == null) {
+            return 0
+        }
+        def release = new File(home, 'release')
+        if (!release.file && home.name == 'jre') {
+            // A JRE inside a Java 8 JDK
+            release = new File(home.parentFile, 'release')
+        }
+        if (!release.file) {
+            return 0
+        }
+        def properties = new Properties()
+        release.withInputStream { properties.load(it) }
+        def matcher = properties.getProperty('JAVA_VERSION', '') =~ /^"?(?:1\.)?(\d+)/
+        return matcher.find() ? matcher.group(1) as int : 0
+    }
+}
@@ -6,6 +6,7 @@ import org.gradle.api.Plugin
 import org.gradle.api.Project
 import org.gradle.api.artifacts.Configuration
 import org.gradle.api.artifacts.Dependency
+import org.gradle.api.execution.TaskExecutionGraph
 import org.gradle.api.file.DuplicatesStrategy
 import org.gradle.api.internal.artifacts.publish.ArchivePublishArtifact
 import org.gradle.api.internal.plugins.DefaultArtifactPublicationSet
@@ -20,6 +21,7 @@ import org.gradle.jvm.tasks.Jar
 import org.gradle.language.jvm.tasks.ProcessResources
 import org.gradle.tooling.BuildException
 import org.jetbrains.annotations.NotNull
+import org.jetbrains.intellij.dependency.IdeaDependency
 import org.jetbrains.intellij.dependency.IdeaDependencyManager
 import org.jetbrains.intellij.dependency.PluginDependency
 import org.jetbrains.intellij.dependency.PluginDependencyManager
@@ -76,15 +78,17 @@ class IntelliJPlugin implements Plugin<Project> {
 
     private static def configureTasks(@NotNull Project project, @NotNull IntelliJPluginExtension extension) {
         LOG.info("Configuring IntelliJ IDEA gradle plugin")
-        configurePatchPluginXmlTask(project, extension)
-        configurePrepareSandboxTasks(project, extension)
-        configurePluginVerificationTask(project)
-        configureRunIdeaTask(project, extension)
-        configureBuildPluginTask(project)
-        configurePublishPluginTask(project, extension)
-        configureProcessResources(project)
-        configureInstrumentation(project, extension)
-        configureDependencyExtensions(project, extension)
+        def timer = new StepTimer(project)
+        timer.time('patch plugin.xml task') { configurePatchPluginXmlTask(project, extension) }
+        timer.time('sandbox tasks') { configurePrepareSandboxTasks(project, extension) }
+        timer.time('verification task') { configurePluginVerificationTask(project) }
+        timer.time('run task') { configureRunIdeaTask(project, extension) }
+        timer.time('build task') { configureBuildPluginTask(project) }
+        timer.time('publish task') { configurePublishPluginTask(project, extension) }
+        timer.time('resources') { configureProcessResources(project) }
+        timer.time('instrumentation') { configureInstrumentation(project, extension) }
+        timer.time('dependency extensions') { configureDependencyExtensions(project, extension) }
+        timer.report('applying')
         assert !project.state.executed : "afterEvaluate is a no-op for an executed project"
         project.afterEvaluate { configureProjectAfterEvaluate(it, extension) }
     }
@@ -98,9 +102,44 @@ class IntelliJPlugin implements Plugin<Project> {
             }
         }
 
-        configureIntellijDependency(project, extension)
-        configurePluginDependencies(project, extension)
-        configureTestTasks(project, extension)
+        def timer = new StepTimer(project)
+        timer.time('IDE dependency setup') { configureIntellijDependency(project, extension, timer) }
+        timer.time('plugin dependencies setup') { configurePluginDependencies(project, extension, timer) }
+        if (isCompileDependency(project)) {
+            // Projects depending on this one resolve its compile configuration without the hooks of this project
+            extension.getIdeaDependency()
+            extension.getPluginDependencies()
+        } else {
+            timer.time('dependency registration') { configureDependencyRegistration(project, extension) }
+        }
+        timer.time('test tasks') { configureTestTasks(project, extension) }
+        timer.report('configuration after evaluation')
+    }
+
+    /**
+     * @return true if the IDE is a compile dependency, as with Gradle versions without {@code compileOnly}
+     */
+    private static boolean isCompileDependency(@NotNull Project project) {
+        def compile = project.configurations.getByName(JavaPlugin.COMPILE_CONFIGURATION_NAME)
+        return compile.extendsFrom.any { it.name == IDEA_CONFIGURATION_NAME }
+    }
+
+    /**
+     * The IDE and plugins are only resolved and added as dependencies when a configuration including them is
+     * resolved, or when a scheduled task needs them, so e.g. {@code help} or {@code clean} don't download the IDE.
+     * Not used when the IDE is a compile dependency, which is then resolved right after evaluation.
+     */
+    private static void configureDependencyRegistration(@NotNull Project project,
+                                                        @NotNull IntelliJPluginExtension extension) {
+        def intellijConfigurations = [IDEA_CONFIGURATION_NAME, IDEA_PLUGINS_CONFIGURATION_NAME]
+        project.configurations.all { Configuration configuration ->
+            configuration.incoming.beforeResolve {
+                if (configuration.hierarchy.any { it.name in intellijConfigurations }) {
+                    extension.getIdeaDependency()
+                    extension.getPluginDependencies()
+                }
+            }
+        }
     }
 
     private static void configureDependencyExtensions(@NotNull Project project,
@@ -150,8 +189,24 @@ class IntelliJPlugin implements Plugin<Project> {
     }
 
     private static void configureIntellijDependency(@NotNull Project project,
-                                                    @NotNull IntelliJPluginExtension extension) {
+                                                    @NotNull IntelliJPluginExtension extension,
+                                                    @NotNull StepTimer timer) {
         LOG.info("Configuring IntelliJ IDEA dependency")
+        extension.resolveIdeaDependencyWith {
+            timer.time('IDE dependency resolution') { resolveIntellijDependency(project, extension) }
+        }
+        if (extension.configureDefaultDependencies) {
+            def toolsJar = Jvm.current().toolsJar
+            if (toolsJar) {
+                project.dependencies.add(JavaPlugin.RUNTIME_CONFIGURATION_NAME, project.files(toolsJar))
+            }
+        }
+    }
+
+    @NotNull
+    private static IdeaDependency resolveIntellijDependency(@NotNull Project project,
+                                                            @NotNull IntelliJPluginExtension extension) {
+        LOG.info("Resolving IntelliJ IDEA dependency")
         def resolver = new IdeaDependencyManager(extension.intellijRepo ?: DEFAULT_INTELLIJ_REPO)
         def ideaDependency
         if (extension.localPath != null) {
@@ -166,63 +221,78 @@ class IntelliJPlugin implements Plugin<Project> {
             ideaDependency = resolver.resolveRemote(project, version, extension.type, extension.downloadSources,
                     extension.extraDependencies)
         }
-        extension.ideaDependency = ideaDependency
         if (extension.configureDefaultDependencies) {
             LOG.info("IntelliJ IDEA ${ideaDependency.buildNumber} is used for building")
             resolver.register(project, ideaDependency, IDEA_CONFIGURATION_NAME)
             if (!ideaDependency.extraDependencies.empty) {
                 LOG.info("Note: IntelliJ IDEA ${ideaDependency.buildNumber} extra dependencies (${ideaDependency.extraDependencies}) should be applied manually")
             }
-
-            def toolsJar = Jvm.current().toolsJar
-            if (toolsJar) {
-                project.dependencies.add(JavaPlugin.RUNTIME_CONFIGURATION_NAME, project.files(toolsJar))
-            }
         }
         else {
             LOG.info("IntelliJ IDEA ${ideaDependency.buildNumber} dependencies are applied manually")
         }
+        return ideaDependency
     }
 
     private static void configurePluginDependencies(@NotNull Project project,
-                                                    @NotNull IntelliJPluginExtension extension) {
+                                                    @NotNull IntelliJPluginExtension extension,
+                                                    @NotNull StepTimer timer) {
         LOG.info("Configuring IntelliJ IDEA plugin dependencies")
-        def ideVersion = IdeVersion.createIdeVersion(extension.ideaDependency.buildNumber)
-        def resolver = new PluginDependencyManager(project.gradle.gradleUserHomeDir.absolutePath, extension.ideaDependency, extension.pluginsRepo)
-        extension.plugins.each {
-            LOG.info("Configuring IntelliJ plugin $it")
-            if (it instanceof Project) {
-                project.dependencies.add(IDEA_PLUGINS_CONFIGURATION_NAME, it)
-                if (it.state.executed) {
-                    configureProjectPluginDependency(project, it, extension)
-                } else {
-                    it.afterEvaluate {
-                        configureProjectPluginDependency(project, it, extension)
-                    }
-                }
+        extension.plugins.findAll { it instanceof Project }.each { Project dependency ->
+            LOG.info("Configuring IntelliJ plugin $dependency")
+            project.dependencies.add(IDEA_PLUGINS_CONFIGURATION_NAME, dependency)
+            if (dependency.state.executed) {
+                configureProjectPluginDependency(project, dependency, extension)
             } else {
-                def (pluginId, pluginVersion, channel) = Utils.parsePluginDependencyString(it.toString())
-                if (!pluginId) {
-                    throw new BuildException("Failed to resolve plugin $it", null)
-                }
-                def plugin = resolver.resolve(pluginId, pluginVersion, channel)
-                if (plugin == null) {
-                    throw new BuildException("Failed to resolve plugin $it", null)
-                }
-                if (ideVersion != null && !plugin.isCompatible(ideVersion)) {
-                    throw new BuildException("Plugin $it is not compatible to ${ideVersion.asString()}", null)
-                }
-                if (extension.configureDefaultDependencies) {
-                    resolver.register(project, plugin, plugin.builtin ? IDEA_CONFIGURATION_NAME : IDEA_PLUGINS_CONFIGURATION_NAME)
+                dependency.afterEvaluate {
+                    configureProjectPluginDependency(project, it, extension)
                 }
-                extension.pluginDependencies.add(plugin)
-                project.tasks.withType(PrepareSandboxTask).each {
-                    it.configureExternalPlugin(plugin)
+            }
+        }
+
+        def plugins = extension.plugins.findAll { !(it instanceof Project) }.collect { it.toString() }
+        if (plugins.empty) {
+            return
+        }
+        extension.resolvePluginDependenciesWith {
+            timer.time('plugin dependencies resolution') { resolvePluginDependencies(project, extension, plugins) }
+        }
+        // The sandbox contents are inputs of the tasks, so they have to be known before any task runs
+        project.gradle.taskGraph.whenReady { TaskExecutionGraph graph ->
+            def sandboxTasks = project.tasks.withType(PrepareSandboxTask).findAll { graph.hasTask(it) }
+            if (!sandboxTasks.empty) {
+                extension.pluginDependencies.findAll { !(it instanceof PluginProjectDependency) }.each { plugin ->
+                    sandboxTasks.each { it.configureExternalPlugin(plugin) }
                 }
             }
         }
     }
 
+    @NotNull
+    private static List<PluginDependency> resolvePluginDependencies(@NotNull Project project,
+                                                                    @NotNull IntelliJPluginExtension extension,
+                                                                    @NotNull List<String> plugins) {
+        LOG.info("Resolving IntelliJ IDEA plugin dependencies")
+        def ideaDependency = extension.ideaDependency
+        def ideVersion = IdeVersion.createIdeVersion(ideaDependency.buildNumber)
+        def resolver = new PluginDependencyManager(project.gradle.gradleUserHomeDir.absolutePath, ideaDependency, extension.pluginsRepo)
+        def resolvedPlugins = resolver.resolve(plugins)
+        return plugins.collect {
+            LOG.info("Configuring IntelliJ plugin $it")
+            def plugin = resolvedPlugins[it]
+            if (plugin == null) {
+                throw new BuildException("Failed to resolve plugin $it", null)
+            }
+            if (ideVersion != null && !plugin.isCompatible(ideVersion)) {
+                throw new BuildException("Plugin $it is not compatible to ${ideVersion.asString()}", null)
+            }
+            if (extension.configureDefaultDependencies) {
+                resolver.register(project, plugin, plugin.builtin ? IDEA_CONFIGURATION_NAME : IDEA_PLUGINS_CONFIGURATION_NAME)
+            }
+            return plugin
+        }
+    }
+
     private static void configureProjectPluginDependency(@NotNull Project project,
                                                          @NotNull Project dependency,
                                                          @NotNull IntelliJPluginExtension extension) {
@@ -230,7 +300,7 @@ class IntelliJPlugin implements Plugin<Project> {
             throw new BuildException("Cannot use $dependency as a plugin dependency. IntelliJ Plugin is not found." + dependency.plugins, null)
         }
         def pluginDependency = new PluginProjectDependency(dependency)
-        extension.pluginDependencies.add(pluginDependency)
+        extension.addPluginDependency(pluginDependency)
         def dependencySandboxTask = dependency.tasks.findByName(PREPARE_SANDBOX_TASK_NAME)
         project.tasks.withType(PrepareSandboxTask).each {
             it.dependsOn(dependencySandboxTask)
@@ -281,6 +351,7 @@ class IntelliJPlugin implements Plugin<Project> {
             conventionMapping('pluginJar', { (project.tasks.findByName(JavaPlugin.JAR_TASK_NAME) as Jar).archivePath })
             conventionMapping('destinationDir', { project.file(Utils.pluginsDir(extension.sandboxDirectory, inTest)) })
             conventionMapping('configDirectory', { project.file(Utils.configDir(extension.sandboxDirectory, inTest)) })
+            conventionMapping('linkMode', { extension.sandboxLinkMode })
             conventionMapping('librariesToIgnore', { project.files(extension.ideaDependency.jarFiles) })
             conventionMapping('pluginDependencies', { extension.pluginDependencies })
             dependsOn(JavaPlugin.JAR_TASK_NAME)
@@ -309,6 +380,7 @@ class IntelliJPlugin implements Plugin<Project> {
             task.description = "Runs Intellij IDEA with installed plugin."
             task.conventionMapping.map("ideaDirectory", { Utils.ideaSdkDirectory(extension) })
             task.conventionMapping.map("systemProperties", { extension.systemProperties })
+            task.conventionMapping.map("classDataSharing", { extension.classDataSharing })
             task.conventionMapping.map("requiredPluginIds", { Utils.getPluginIds(project) })
             task.conventionMapping.map("configDirectory", {
                 (project.tasks.findByName(PREPARE_SANDBOX_TASK_NAME) as PrepareSandboxTask).getConfigDirectory()
@@ -415,12 +487,18 @@ class IntelliJPlugin implements Plugin<Project> {
             def systemDirectory = project.file(Utils.systemDir(extension.sandboxDirectory, true))
             def pluginsDirectory = project.file(Utils.pluginsDir(extension.sandboxDirectory, true))
 
-            it.enableAssertions = true
-            it.systemProperties(extension.systemProperties)
-            it.systemProperties(Utils.getIdeaSystemProperties(configDirectory, systemDirectory, pluginsDirectory, Utils.getPluginIds(project)))
-            it.jvmArgs = Utils.getIdeaJvmArgs(it, it.jvmArgs, Utils.ideaSdkDirectory(extension))
-            it.classpath += project.files("$extension.ideaDependency.classes/lib/resources.jar",
-                    "$extension.ideaDependency.classes/lib/idea.jar")
+            def task = it
+            task.enableAssertions = true
+            task.systemProperties(extension.systemProperties)
+            // Arguments and classpath depend on the IDE, which is only resolved if the task runs
+            project.gradle.taskGraph.whenReady { TaskExecutionGraph graph ->
+                if (graph.hasTask(task)) {
+                    task.systemProperties(Utils.getIdeaSystemProperties(configDirectory, systemDirectory, pluginsDirectory, Utils.getPluginIds(project)))
+                    task.jvmArgs = Utils.getIdeaJvmArgs(task, task.jvmArgs, Utils.ideaSdkDirectory(extension))
+                    task.classpath += project.files("$extension.ideaDependency.classes/lib/resources.jar",
+                            "$extension.ideaDependency.classes/lib/idea.jar")
+                }
+            }
             it.outputs.dir(systemDirectory)
             it.outputs.dir(configDirectory)
             it.dependsOn(project.getTasksByName(PREPARE_TESTING_SANDBOX_TASK_NAME, false))
@@ -14,6 +14,7 @@ class IntelliJPluginExtension {
     String type = 'IC'
     String pluginName
     String sandboxDirectory
+    String sandboxLinkMode = 'copy'
     String intellijRepo = IntelliJPlugin.DEFAULT_INTELLIJ_REPO
     String pluginsRepo = IntelliJPlugin.DEFAULT_INTELLIJ_PLUGINS_REPO
     String jreRepo = IntelliJPlugin.DEFAULT_JBRE_REPO
@@ -23,6 +24,7 @@ class IntelliJPluginExtension {
     boolean updateSinceUntilBuild = true
     boolean sameSinceUntilBuild = false
     boolean downloadSources = true
+    boolean classDataSharing = false
     // turning it off disables configuring dependencies to intellij sdk jars automatically,
     // instead the intellij, intellijPlugin and intellijPlugins functions could be used for an explicit configuration
     boolean configureDefaultDependencies = true
@@ -32,8 +34,10 @@ class IntelliJPluginExtension {
     @Deprecated
     Publish publish = new Publish()
 
-    IdeaDependency ideaDependency
+    private IdeaDependency ideaDependency
+    private Closure ideaDependencyResolver
     private final Set<PluginDependency> pluginDependencies = new HashSet<>()
+    private Closure pluginDependenciesResolver
     @Deprecated
     private final Map<String, Object> systemProperties = new HashMap<>()
 
@@ -64,10 +68,45 @@ class IntelliJPluginExtension {
         return version.startsWith('IU-') || version.startsWith('IC-') || version.startsWith('RS-') || version.startsWith('RD-') ? version.substring(3) : version
     }
 
-    Set<PluginDependency> getPluginDependencies() {
+    /**
+     * The IDE is resolved on first access, so builds not needing it don't download it.
+     */
+    synchronized IdeaDependency getIdeaDependency() {
+        if (ideaDependencyResolver != null) {
+            ideaDependency = ideaDependencyResolver.call() as IdeaDependency
+            ideaDependencyResolver = null
+        }
+        return ideaDependency
+    }
+
+    synchronized void setIdeaDependency(IdeaDependency ideaDependency) {
+        this.ideaDependency = ideaDependency
+        this.ideaDependencyResolver = null
+    }
+
+    synchronized void resolveIdeaDependencyWith(Closure resolver) {
+        this.ideaDependencyResolver = resolver
+    }
+
+    /**
+     * External plugins are resolved on first access, plugins of other projects are added as they are evaluated.
+     */
+    synchronized Set<PluginDependency> getPluginDependencies() {
+        if (pluginDependenciesResolver != null) {
+            pluginDependencies.addAll(pluginDependenciesResolver.call() as Collection<PluginDependency>)
+            pluginDependenciesResolver = null
+        }
         return pluginDependencies
     }
 
+    synchronized void addPluginDependency(PluginDependency pluginDependency) {
+        pluginDependencies.add(pluginDependency)
+    }
+
+    synchronized void resolvePluginDependenciesWith(Closure resolver) {
+        this.pluginDependenciesResolver = resolver
+    }
+
     def publish(Closure c) {
         publish.with(c)
     }
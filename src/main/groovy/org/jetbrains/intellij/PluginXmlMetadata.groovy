@@ -0,0 +1,39 @@
+package org.jetbrains.intellij
+
+import org.jetbrains.annotations.NotNull
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Parts of a plugin.xml needed while configuring a build. They are cached by the content hash of the file,
+ * so an unchanged file is parsed once for all tasks and projects, and for later builds in the same daemon.
+ */
+class PluginXmlMetadata {
+    private static final Map<String, PluginXmlMetadata> CACHE = new ConcurrentHashMap<>()
+
+    final String hash
+    final boolean ideaPlugin
+    final List<String> ids
+
+    private PluginXmlMetadata(@NotNull String hash, @NotNull Node pluginXml) {
+        this.hash = hash
+        this.ideaPlugin = pluginXml.name() == 'idea-plugin'
+        this.ids = Collections.unmodifiableList(pluginXml.id*.text() as List<String>)
+    }
+
+    /**
+     * @throws org.xml.sax.SAXParseException if the file is malformed, which is not cached
+     */
+    @NotNull
+    static PluginXmlMetadata of(@NotNull File pluginXml) {
+        def path = pluginXml.canonicalPath
+        def hash = Utils.sha256(pluginXml)
+        def cached = CACHE.get(path)
+        if (cached != null && cached.hash == hash) {
+            return cached
+        }
+        def metadata = new PluginXmlMetadata(hash, Utils.parseXml(pluginXml))
+        CACHE.put(path, metadata)
+        return metadata
+    }
+}
@@ -0,0 +1,51 @@
+package org.jetbrains.intellij
+
+import org.gradle.api.Project
+import org.jetbrains.annotations.NotNull
+
+import java.util.concurrent.TimeUnit
+
+import static org.jetbrains.intellij.IntelliJPlugin.LOG
+
+/**
+ * Time the plugin spends configuring a project, per step, logged with {@code --info}. Steps run lazily, like
+ * resolving the IDE, are logged when a build first needs them, so their cost shows up in that build.
+ */
+class StepTimer {
+    private final String projectName
+    private final Map<String, Long> steps = new LinkedHashMap<>()
+
+    StepTimer(@NotNull Project project) {
+        this.projectName = project.toString()
+    }
+
+    def time(@NotNull String step, @NotNull Closure action) {
+        def start = System.nanoTime()
+        try {
+            return action.call()
+        }
+        finally {
+            def nanos = System.nanoTime() - start
+            synchronized (steps) {
+                steps.put(step, (steps.get(step) ?: 0L) + nanos)
+            }
+            LOG.info("IntelliJ plugin: $step for $projectName took ${millis(nanos)} ms")
+        }
+    }
+
+    /**
+     * Logs the total of the steps timed since the last report.
+     */
+    void report(@NotNull String phase) {
+        synchronized (steps) {
+            long total = steps.values().sum(0L) as long
+            def details = steps.collect { "$it.key ${millis(it.value)} ms" }.join(', ')
+            LOG.info("IntelliJ plugin: $phase for $projectName took ${millis(total)} ms ($details)")
+            steps.clear()
+        }
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos)
+    }
+}
@@ -14,11 +14,13 @@ import org.gradle.api.tasks.SourceSet
 import org.gradle.internal.os.OperatingSystem
 import org.gradle.process.JavaForkOptions
 import org.jetbrains.annotations.NotNull
+import org.jetbrains.annotations.Nullable
 import org.xml.sax.ErrorHandler
 import org.xml.sax.InputSource
 import org.xml.sax.SAXException
 import org.xml.sax.SAXParseException
 
+import java.security.MessageDigest
 import java.util.regex.Pattern
 
 class Utils {
@@ -56,7 +58,7 @@ class Utils {
             def pluginXml = new File(it, "META-INF/plugin.xml")
             if (pluginXml.exists()) {
                 try {
-                    if (parseXml(pluginXml).name() == 'idea-plugin') {
+                    if (PluginXmlMetadata.of(pluginXml).ideaPlugin) {
                         result += pluginXml
                     }
                 } catch (SAXParseException ignore) {
@@ -100,7 +102,8 @@ class Utils {
     @NotNull
     static List<String> getIdeaJvmArgs(@NotNull JavaForkOptions options,
                                        @NotNull List<String> originalArguments,
-                                       @NotNull File ideaDirectory) {
+                                       @NotNull File ideaDirectory,
+                                       @Nullable ClassDataSharing classDataSharing = null) {
         if (options.maxHeapSize == null) options.maxHeapSize = "512m"
         if (options.minHeapSize == null) options.minHeapSize = "256m"
         boolean hasPermSizeArg = false
@@ -115,6 +118,7 @@ class Utils {
         def bootJar = new File(ideaDirectory, "lib/boot.jar")
         if (bootJar.exists()) result += "-Xbootclasspath/a:$bootJar.absolutePath"
         if (!hasPermSizeArg) result += "-XX:MaxPermSize=250m"
+        if (classDataSharing != null) result += classDataSharing.jvmArgs()
         return result
     }
 
@@ -154,8 +158,7 @@ class Utils {
     static def getPluginIds(@NotNull Project project) {
         Set<String> ids = new HashSet<>()
         sourcePluginXmlFiles(project).files.each {
-            def pluginXml = parseXml(it)
-            ids += pluginXml.id*.text()
+            ids += PluginXmlMetadata.of(it).ids
         }
         return ids.size() == 1 ? [ids.first()] : Collections.emptyList()
     }
@@ -198,6 +201,19 @@ class Utils {
         return StringUtil.endsWithIgnoreCase(file.name, ".zip")
     }
 
+    @NotNull
+    static String sha256(@NotNull File file) {
+        def digest = MessageDigest.getInstance('SHA-256')
+        byte[] buffer = new byte[1 << 20]
+        file.withInputStream { stream ->
+            int read
+            while ((read = stream.read(buffer)) > 0) {
+                digest.update(buffer, 0, read)
+            }
+        }
+        return digest.digest().encodeHex().toString()
+    }
+
     @NotNull
     static parsePluginDependencyString(@NotNull String s) {
         if (new File(s).exists()) {
@@ -0,0 +1,174 @@
+package org.jetbrains.intellij.dependency
+
+import org.apache.tools.zip.ZipEntry
+import org.apache.tools.zip.ZipFile
+import org.gradle.api.GradleException
+import org.jetbrains.annotations.NotNull
+import org.jetbrains.annotations.Nullable
+import org.jetbrains.intellij.Utils
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+import static org.jetbrains.intellij.IntelliJPlugin.LOG
+
+/**
+ * Extracts an IDE distribution straight into its cache directory, entries being spread over several threads.
+ *
+ * The marker file describes the archive the directory was extracted from: its size, modification time and
+ * content hash, and how its entries were split into chunks. Up-to-date checks only look at the marker and
+ * the archive file attributes. Finished chunks are appended to a progress file, so an interrupted extraction
+ * continues with the remaining chunks of the same archive.
+ */
+class DistributionExtractor {
+    static final String MARKER_FILE_NAME = 'markerFile'
+    private static final String PROGRESS_FILE_NAME = 'markerFile.progress'
+    private static final int MAX_CHUNKS = 64
+
+    private final File zipFile
+    private final File targetDirectory
+    private final File markerFile
+    private final File progressFile
+
+    DistributionExtractor(@NotNull File zipFile, @NotNull File targetDirectory) {
+        this.zipFile = zipFile
+        this.targetDirectory = targetDirectory
+        this.markerFile = new File(targetDirectory, MARKER_FILE_NAME)
+        this.progressFile = new File(targetDirectory, PROGRESS_FILE_NAME)
+    }
+
+    boolean isUpToDate() {
+        def marker = readMarker()
+        if (marker == null || marker.getProperty('complete') != 'true' || !isSameSize(marker)) {
+            return false
+        }
+        if (marker.getProperty('lastModified') == zipFile.lastModified() as String) {
+            return true
+        }
+        // The archive was touched, compare its content
+        if (marker.getProperty('sha256') != Utils.sha256(zipFile)) {
+            return false
+        }
+        marker.setProperty('lastModified', zipFile.lastModified() as String)
+        writeMarker(marker)
+        return true
+    }
+
+    void extract() {
+        def marker = readMarker()
+        Set<Integer> doneChunks = new HashSet<>()
+        if (marker != null && marker.getProperty('complete') == 'false' && isSameSize(marker)
+                && marker.getProperty('lastModified') == zipFile.lastModified() as String) {
+            doneChunks = readProgress()
+            LOG.info("Resuming extraction of ${zipFile.name}: ${doneChunks.size()} of ${marker.getProperty('chunks')} chunks are done")
+        } else {
+            if (targetDirectory.exists()) targetDirectory.deleteDir()
+            targetDirectory.mkdirs()
+        }
+
+        def zip = new ZipFile(zipFile)
+        def threads = Runtime.runtime.availableProcessors()
+        def pool = Executors.newFixedThreadPool(threads)
+        try {
+            List<ZipEntry> entries = Collections.list(zip.entries)
+            int chunks = Math.max(1, Math.min(MAX_CHUNKS, entries.size()))
+            marker = new Properties()
+            marker.setProperty('size', zipFile.length() as String)
+            marker.setProperty('lastModified', zipFile.lastModified() as String)
+            marker.setProperty('entries', entries.size() as String)
+            marker.setProperty('chunks', chunks as String)
+            marker.setProperty('complete', 'false')
+            writeMarker(marker)
+
+            LOG.debug("Extracting ${entries.size()} entries of ${zipFile.name} on $threads threads")
+            Future<String> hash = pool.submit({ Utils.sha256(zipFile) } as Callable<String>)
+            def targetPath = targetDirectory.toPath().toAbsolutePath().normalize()
+            List<Future<?>> extracted = (0..<chunks).findAll { !doneChunks.contains(it) }.collect { int chunk ->
+                pool.submit({
+                    // Every chunk takes each n-th entry, so large files are spread evenly
+                    for (int i = chunk; i < entries.size(); i += chunks) {
+                        extractEntry(zip, entries[i], targetPath)
+                    }
+                    recordProgress(chunk)
+                } as Runnable)
+            }
+            extracted.each { waitFor(it) }
+
+            marker.setProperty('sha256', waitFor(hash))
+            marker.setProperty('complete', 'true')
+            writeMarker(marker)
+            progressFile.delete()
+        }
+        finally {
+            pool.shutdownNow()
+            zip.close()
+        }
+    }
+
+    private static void extractEntry(@NotNull ZipFile zip, @NotNull ZipEntry entry, @NotNull Path targetPath) {
+        def target = targetPath.resolve(entry.name).normalize()
+        if (!target.startsWith(targetPath)) {
+            throw new GradleException("Entry ${entry.name} is outside of the target directory")
+        }
+        if (entry.isDirectory()) {
+            Files.createDirectories(target)
+            return
+        }
+        Files.createDirectories(target.parent)
+        zip.getInputStream(entry).withStream {
+            Files.copy(it, target, StandardCopyOption.REPLACE_EXISTING)
+        }
+        if ((entry.unixMode & 0100) != 0) {
+            target.toFile().setExecutable(true, false)
+        }
+    }
+
+    private static <T> T waitFor(@NotNull Future<T> future) {
+        try {
+            return future.get()
+        }
+        catch (ExecutionException e) {
+            throw new GradleException("Cannot extract IDE distribution", e.cause)
+        }
+    }
+
+    private boolean isSameSize(@NotNull Properties marker) {
+        return marker.getProperty('size') == zipFile.length() as String
+    }
+
+    @Nullable
+    private Properties readMarker() {
+        if (!markerFile.exists()) {
+            return null
+        }
+        def marker = new Properties()
+        markerFile.withInputStream { marker.load(it) }
+        // Markers of older versions only contain the build number
+        return marker.getProperty('size') != null ? marker : null
+    }
+
+    private void writeMarker(@NotNull Properties marker) {
+        markerFile.withOutputStream { marker.store(it, null) }
+    }
+
+    private synchronized void recordProgress(int chunk) {
+        Files.write(progressFile.toPath(), "$chunk\n".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC)
+    }
+
+    @NotNull
+    private Set<Integer> readProgress() {
+        if (!progressFile.exists()) {
+            return new HashSet<Integer>()
+        }
+        // The last line may be cut off by the interruption
+        return progressFile.readLines().findAll { it ==~ /\d+/ }.collect { it as Integer } as Set<Integer>
+    }
+}
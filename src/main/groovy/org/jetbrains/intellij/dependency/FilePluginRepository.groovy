@@ -0,0 +1,34 @@
+package org.jetbrains.intellij.dependency
+
+import org.jetbrains.annotations.NotNull
+import org.jetbrains.annotations.Nullable
+
+import java.nio.file.Files
+
+/**
+ * Plugin repository in a local directory, used for {@code file:} repository URLs.
+ * A plugin is a single jar or zip in {@code [channel/]id/version/}.
+ */
+class FilePluginRepository implements PluginRepository {
+    private final File root
+
+    FilePluginRepository(@NotNull File root) {
+        this.root = root
+    }
+
+    @Nullable
+    @Override
+    File download(@NotNull String id, @Nullable String version, @Nullable String channel, @NotNull File targetDirectory) {
+        if (!version) {
+            return null
+        }
+        def versionDirectory = new File(channel ? new File(root, channel) : root, "$id/$version")
+        def files = versionDirectory.listFiles()
+        if (files == null || files.length != 1) {
+            return null
+        }
+        def target = new File(targetDirectory, files[0].name)
+        Files.copy(files[0].toPath(), target.toPath())
+        return target
+    }
+}
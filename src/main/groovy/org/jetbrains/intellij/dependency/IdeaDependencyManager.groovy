@@ -16,8 +16,6 @@ import org.jetbrains.annotations.Nullable
 import org.jetbrains.intellij.IntelliJPluginExtension
 import org.jetbrains.intellij.Utils
 
-import java.util.zip.ZipFile
-
 import static org.jetbrains.intellij.IntelliJPlugin.LOG
 
 class IdeaDependencyManager {
@@ -135,7 +133,7 @@ class IdeaDependencyManager {
         File zipFile = configuration.singleFile
         LOG.debug("IDEA zip: " + zipFile.path)
         def cacheDirectory = getZipCacheDirectory(zipFile, project, type)
-        unzipDependencyFile(cacheDirectory, project, zipFile, type, version.endsWith("-SNAPSHOT"))
+        unzipDependencyFile(cacheDirectory, zipFile, type)
         return cacheDirectory
     }
 
@@ -187,7 +185,7 @@ class IdeaDependencyManager {
                 if (depFile.name.endsWith(".zip")) {
                     def cacheDirectory = getZipCacheDirectory(depFile, project, "IC")
                     LOG.debug("IDEA extra dependency $name: " + cacheDirectory.path)
-                    unzipDependencyFile(cacheDirectory, project, depFile, "IC", version.endsWith("-SNAPSHOT"))
+                    unzipDependencyFile(cacheDirectory, depFile, "IC")
                     return cacheDirectory
                 } else {
                     LOG.debug("IDEA extra dependency $name: " + depFile.path)
@@ -203,56 +201,19 @@ class IdeaDependencyManager {
     }
 
     private static void unzipDependencyFile(@NotNull File cacheDirectory,
-                                            @NotNull Project project,
                                             @NotNull File zipFile,
-                                            @NotNull String type,
-                                            boolean checkVersionChange) {
-        def markerFile = new File(cacheDirectory, "markerFile")
-        if (isCacheUpToDate(zipFile, markerFile, checkVersionChange)) {
+                                            @NotNull String type) {
+        def extractor = new DistributionExtractor(zipFile, cacheDirectory)
+        if (extractor.upToDate) {
             return
         }
 
-        if (cacheDirectory.exists()) cacheDirectory.deleteDir()
-        cacheDirectory.mkdir()
-
         LOG.debug("Unzipping ${zipFile.name}")
-        project.copy {
-            it.from(project.zipTree(zipFile))
-            it.into(cacheDirectory)
-        }
+        extractor.extract()
         resetExecutablePermissions(cacheDirectory, type)
-
-        storeCache(cacheDirectory, markerFile)
         LOG.debug("Unzipped")
     }
 
-    private static boolean isCacheUpToDate(File zipFile, File markerFile, boolean checkVersion) {
-        if (checkVersion && markerFile.exists()) {
-            def zip
-            try {
-                zip = new ZipFile(zipFile)
-                def entry = zip.getEntry("build.txt")
-                if (entry != null && zip.getInputStream(entry).text.trim() != markerFile.text.trim()) {
-                    return false
-                }
-            }
-            finally {
-                if (zip) {
-                    zip.close()
-                }
-            }
-        }
-        return markerFile.exists()
-    }
-
-    private static void storeCache(File directoryToCache, File markerFile) {
-        markerFile.createNewFile()
-        def buildTxt = new File(directoryToCache, "build.txt")
-        if (buildTxt.exists()) {
-            markerFile.text = buildTxt.text.trim()
-        }
-    }
-
     private static void resetExecutablePermissions(@NotNull File cacheDirectory, @NotNull String type) {
         if (type == 'RS' || type == 'RD') {
             LOG.debug("Resetting executable permissions")
@@ -40,16 +40,30 @@ class PluginDependencyImpl implements PluginDependency, Serializable {
         this.artifact = artifact
         this.sourcesDirectory = sourcesDirectory
         this.builtin = builtin
-        initFiles()
+        initFiles(null)
     }
 
-    private initFiles() {
-        if (Utils.isJarFile(artifact)) {
+    /**
+     * Creates the dependency with already known jars, without listing the {@code lib} directory.
+     */
+    PluginDependencyImpl(@NotNull String id, @NotNull String version, @NotNull File artifact, boolean builtin,
+                         @NotNull Collection<File> jarFiles) {
+        this.id = id
+        this.version = version
+        this.artifact = artifact
+        this.builtin = builtin
+        initFiles(jarFiles)
+    }
+
+    private initFiles(@Nullable Collection<File> knownJarFiles) {
+        if (knownJarFiles != null) {
+            jarFiles = knownJarFiles
+        } else if (Utils.isJarFile(artifact)) {
             jarFiles = Collections.singletonList(artifact)
         }
         if (artifact.isDirectory()) {
             File lib = new File(artifact, "lib")
-            if (lib.isDirectory()) {
+            if (knownJarFiles == null && lib.isDirectory()) {
                 jarFiles = Utils.collectJars(lib, Predicates.<File> alwaysTrue(), false)
             }
             File classes = new File(artifact, "classes")
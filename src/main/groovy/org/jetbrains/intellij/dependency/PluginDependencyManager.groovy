@@ -15,17 +15,26 @@ import org.jetbrains.annotations.NotNull
 import org.jetbrains.annotations.Nullable
 import org.jetbrains.intellij.IntelliJPlugin
 import org.jetbrains.intellij.Utils
-import org.jetbrains.intellij.pluginRepository.PluginRepositoryInstance
 
 import java.nio.file.Files
 import java.nio.file.Paths
 import java.nio.file.StandardCopyOption
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 import java.util.zip.ZipFile
 
 class PluginDependencyManager {
+    private static final int MAX_PARALLEL_RESOLUTIONS = 8
+
     private final String cacheDirectoryPath
     private final String repositoryHost
+    private final PluginRepository repository
     private final IdeaDependency ideaDependency
+    private final PluginMetadataIndex metadataIndex
+    private final Map<String, Object> cacheLocks = new ConcurrentHashMap<>()
 
     private boolean repoRegistered
     private Set<String> pluginSources = new HashSet<>()
@@ -35,13 +44,74 @@ class PluginDependencyManager {
         this.repositoryHost = pluginRepoUrl
         this.ideaDependency = ideaDependency
 
-        def host = StringUtil.trimStart(StringUtil.trimStart(StringUtil.trimStart(repositoryHost, 'http://'), 'https://'), 'www')
+        def host
+        if (repositoryHost.startsWith('file:')) {
+            def repositoryDirectory = new File(new URI(repositoryHost))
+            repository = new FilePluginRepository(repositoryDirectory)
+            host = "file-${Integer.toHexString(repositoryDirectory.absolutePath.hashCode())}"
+        } else {
+            repository = new RemotePluginRepository(repositoryHost)
+            host = StringUtil.trimStart(StringUtil.trimStart(StringUtil.trimStart(repositoryHost, 'http://'), 'https://'), 'www')
+        }
         // todo: a better way to define cache directory
         cacheDirectoryPath = Paths.get(gradleHomePath, 'caches/modules-2/files-2.1/com.jetbrains.intellij.idea', host).toString()
+        metadataIndex = new PluginMetadataIndex(new File(cacheDirectoryPath))
+    }
+
+    /**
+     * Resolves plugins given as {@code id:version@channel} notations concurrently.
+     *
+     * @return resolved plugins by notation, in the order of the notations; null values for plugins which cannot be read
+     */
+    @NotNull
+    Map<String, PluginDependency> resolve(@NotNull Collection<String> notations) {
+        def uniqueNotations = new LinkedHashSet<String>(notations)
+        if (uniqueNotations.isEmpty()) {
+            return Collections.emptyMap()
+        }
+        def pool = Executors.newFixedThreadPool(Math.min(uniqueNotations.size(), MAX_PARALLEL_RESOLUTIONS))
+        try {
+            Map<String, Future<PluginDependency>> futures = uniqueNotations.collectEntries { notation ->
+                [(notation): pool.submit({ resolveNotation(notation) } as Callable<PluginDependency>)]
+            }
+            Map<String, PluginDependency> result = new LinkedHashMap<>()
+            futures.each { notation, future ->
+                try {
+                    result.put(notation, future.get())
+                }
+                catch (ExecutionException e) {
+                    throw e.cause
+                }
+            }
+            return result
+        }
+        finally {
+            pool.shutdownNow()
+            metadataIndex.save()
+        }
     }
 
     @NotNull
     PluginDependency resolve(@NotNull String id, @Nullable String version, @Nullable String channel) {
+        try {
+            return doResolve(id, version, channel)
+        }
+        finally {
+            metadataIndex.save()
+        }
+    }
+
+    @Nullable
+    private PluginDependency resolveNotation(@NotNull String notation) {
+        def (pluginId, pluginVersion, channel) = Utils.parsePluginDependencyString(notation)
+        if (!pluginId) {
+            throw new BuildException("Failed to resolve plugin $notation", null)
+        }
+        return doResolve(pluginId as String, pluginVersion as String, channel as String)
+    }
+
+    @Nullable
+    private PluginDependency doResolve(@NotNull String id, @Nullable String version, @Nullable String channel) {
         if (!version && !channel) {
             if (Paths.get(id).absolute) {
                 return externalPluginDependency(new File(id), null)
@@ -50,13 +120,17 @@ class PluginDependencyManager {
                 def pluginDirectory = new File(ideaDependency.classes, "plugins/$id").canonicalFile
                 if (pluginDirectory.exists() && pluginDirectory.isDirectory()) {
                     def builtinPluginVersion = ideaDependency.version + (ideaDependency.sources ? "-withSources" : "")
-                    return new PluginDependencyImpl(pluginDirectory.name, builtinPluginVersion, pluginDirectory, true)
+                    return builtinPluginDependency(pluginDirectory, builtinPluginVersion)
                 }
             }
             // todo: implement downloading last compatible plugin version
             throw new BuildException("Cannot find builtin plugin $id for IDE: $ideaDependency.classes.absolutePath", null)
         }
-        return findCachedPlugin(id, version, channel) ?: downloadPlugin(id, version, channel)
+        // notations differing only in the channel share the cache directory
+        def lock = cacheLocks.computeIfAbsent(pluginFqn(id, version).toString()) { new Object() }
+        synchronized (lock) {
+            return findCachedPlugin(id, version, channel) ?: downloadPlugin(id, version, channel)
+        }
     }
 
     void register(@NotNull Project project, @NotNull PluginDependency plugin, @NotNull String configuration) {
@@ -125,9 +199,8 @@ class PluginDependencyManager {
     @NotNull
     private PluginDependency downloadPlugin(@NotNull String id, @Nullable String version, @Nullable String channel) {
         IntelliJPlugin.LOG.info("Downloading $id:$version from $repositoryHost")
-        def repositoryInstance = new PluginRepositoryInstance(repositoryHost, null, null)
         def tempDirectory = Files.createTempDirectory("intellij")
-        def download = repositoryInstance.download(id, version, channel, tempDirectory.toString())
+        def download = repository.download(id, version, channel, tempDirectory.toFile())
         if (download == null) {
             throw new BuildException("Cannot find plugin $id:$version at $repositoryHost", null)
         }
@@ -209,12 +282,40 @@ class PluginDependencyManager {
         return files[0]
     }
 
-    private static externalPluginDependency(@NotNull File artifact, @Nullable String channel) {
+    @NotNull
+    private PluginDependency builtinPluginDependency(@NotNull File pluginDirectory, @NotNull String version) {
+        def checksum = PluginMetadataIndex.checksum(pluginDirectory, true)
+        def indexed = metadataIndex.find(checksum, pluginDirectory)
+        if (indexed != null && indexed.version == version) {
+            return indexed
+        }
+        def pluginDependency = new PluginDependencyImpl(pluginDirectory.name, version, pluginDirectory, true)
+        metadataIndex.put(checksum, pluginDependency)
+        return pluginDependency
+    }
+
+    @Nullable
+    private PluginDependency externalPluginDependency(@NotNull File artifact, @Nullable String channel) {
+        def checksum = PluginMetadataIndex.checksum(artifact, false)
+        def indexed = metadataIndex.find(checksum, artifact)
+        if (indexed != null) {
+            indexed.channel = channel
+            return indexed
+        }
+        def pluginDependency = createExternalPluginDependency(artifact)
+        if (pluginDependency != null) {
+            metadataIndex.put(checksum, pluginDependency)
+            pluginDependency.channel = channel
+        }
+        return pluginDependency
+    }
+
+    @Nullable
+    private static PluginDependencyImpl createExternalPluginDependency(@NotNull File artifact) {
         def creationResult = IdePluginManager.createManager().createPlugin(artifact)
         if (creationResult instanceof PluginCreationSuccess) {
             def intellijPlugin = creationResult.plugin
             def pluginDependency = new PluginDependencyImpl(intellijPlugin.pluginId, intellijPlugin.pluginVersion, artifact)
-            pluginDependency.channel = channel
             pluginDependency.sinceBuild = intellijPlugin.sinceBuild?.asStringWithoutProductCode()
             pluginDependency.untilBuild = intellijPlugin.untilBuild?.asStringWithoutProductCode()
             return pluginDependency
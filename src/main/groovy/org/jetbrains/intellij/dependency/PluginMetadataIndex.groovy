@@ -0,0 +1,126 @@
+package org.jetbrains.intellij.dependency
+
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+import org.jetbrains.annotations.NotNull
+import org.jetbrains.annotations.Nullable
+import org.jetbrains.intellij.Utils
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+
+import static org.jetbrains.intellij.IntelliJPlugin.LOG
+
+/**
+ * Metadata of resolved plugins, kept in the plugin cache directory so that a plugin is parsed only once.
+ *
+ * Entries are keyed by a checksum of the plugin artifact. For a jar it is the content hash.
+ * For an extracted plugin it covers the paths, sizes and modification times of its files.
+ * For a builtin plugin only its {@code lib} directory is listed, since the IDE directory isn't modified.
+ */
+class PluginMetadataIndex {
+    static final String INDEX_FILE_NAME = 'plugin-metadata-index.json'
+
+    private final File indexFile
+    private final Map<String, Map> entries = new ConcurrentHashMap<>()
+    private volatile boolean changed
+
+    PluginMetadataIndex(@NotNull File directory) {
+        this.indexFile = new File(directory, INDEX_FILE_NAME)
+        entries.putAll(read())
+    }
+
+    @Nullable
+    PluginDependencyImpl find(@NotNull String checksum, @NotNull File artifact) {
+        def entry = entries.get(checksum)
+        if (entry == null) {
+            return null
+        }
+        def jarFiles = (entry.jars as List<String>).collect { artifact.isDirectory() ? new File(artifact, it) : artifact }
+        def plugin = new PluginDependencyImpl(entry.id as String, entry.version as String, artifact,
+                entry.builtin as boolean, jarFiles)
+        plugin.sinceBuild = entry.sinceBuild as String
+        plugin.untilBuild = entry.untilBuild as String
+        return plugin
+    }
+
+    void put(@NotNull String checksum, @NotNull PluginDependencyImpl plugin) {
+        def artifactPath = plugin.artifact.toPath()
+        def jars = plugin.jarFiles.collect {
+            plugin.artifact.isDirectory() ? artifactPath.relativize(it.toPath()).toString().replace(File.separatorChar, '/') : it.name
+        }
+        entries.put(checksum, [
+                id        : plugin.id,
+                version   : plugin.version,
+                sinceBuild: plugin.sinceBuild,
+                untilBuild: plugin.untilBuild,
+                builtin   : plugin.builtin,
+                jars      : jars,
+                artifact  : plugin.artifact.absolutePath,
+        ])
+        changed = true
+    }
+
+    /**
+     * Writes new entries, merged with the ones other builds may have written meanwhile.
+     * Entries of deleted artifacts are dropped.
+     */
+    synchronized void save() {
+        if (!changed) {
+            return
+        }
+        def merged = new HashMap<String, Map>(read())
+        merged.putAll(entries)
+        merged.values().removeAll { !new File(it.artifact as String).exists() }
+        indexFile.parentFile.mkdirs()
+        def temporaryFile = File.createTempFile(INDEX_FILE_NAME, '.tmp', indexFile.parentFile)
+        temporaryFile.setText(JsonOutput.toJson(merged), StandardCharsets.UTF_8.name())
+        Files.move(temporaryFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        changed = false
+    }
+
+    @NotNull
+    static String checksum(@NotNull File artifact, boolean builtin) {
+        if (!artifact.isDirectory()) {
+            return Utils.sha256(artifact)
+        }
+        def digest = MessageDigest.getInstance('SHA-256')
+        def base = artifact.toPath()
+        def files = []
+        if (builtin) {
+            digest.update(artifact.absolutePath.getBytes(StandardCharsets.UTF_8))
+            def lib = new File(artifact, 'lib')
+            if (lib.isDirectory()) {
+                lib.eachFile { files << it }
+            }
+        } else {
+            artifact.eachFileRecurse { files << it }
+        }
+        files.collect { File file ->
+            "${base.relativize(file.toPath()).toString().replace(File.separatorChar, '/')}:${file.length()}:${file.lastModified()}"
+        }.sort().each {
+            digest.update("\n$it".getBytes(StandardCharsets.UTF_8))
+        }
+        return digest.digest().encodeHex().toString()
+    }
+
+    @NotNull
+    private Map<String, Map> read() {
+        if (!indexFile.exists()) {
+            return Collections.emptyMap()
+        }
+        try {
+            def json = new JsonSlurper().parse(indexFile)
+            if (json instanceof Map) {
+                return json as Map<String, Map>
+            }
+        }
+        catch (Exception e) {
+            LOG.warn("Cannot read plugin metadata index $indexFile: $e.message")
+        }
+        return Collections.emptyMap()
+    }
+}
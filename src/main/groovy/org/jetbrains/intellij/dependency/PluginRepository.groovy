@@ -0,0 +1,12 @@
+package org.jetbrains.intellij.dependency
+
+import org.jetbrains.annotations.NotNull
+import org.jetbrains.annotations.Nullable
+
+interface PluginRepository {
+    /**
+     * @return downloaded plugin jar or zip in the target directory, null if the plugin is not found
+     */
+    @Nullable
+    File download(@NotNull String id, @Nullable String version, @Nullable String channel, @NotNull File targetDirectory)
+}
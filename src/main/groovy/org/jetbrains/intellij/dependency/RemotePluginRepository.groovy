@@ -0,0 +1,20 @@
+package org.jetbrains.intellij.dependency
+
+import org.jetbrains.annotations.NotNull
+import org.jetbrains.annotations.Nullable
+import org.jetbrains.intellij.pluginRepository.PluginRepositoryInstance
+
+class RemotePluginRepository implements PluginRepository {
+    private final String repositoryHost
+
+    RemotePluginRepository(@NotNull String repositoryHost) {
+        this.repositoryHost = repositoryHost
+    }
+
+    @Nullable
+    @Override
+    File download(@NotNull String id, @Nullable String version, @Nullable String channel, @NotNull File targetDirectory) {
+        def repositoryInstance = new PluginRepositoryInstance(repositoryHost, null, null)
+        return repositoryInstance.download(id, version, channel, targetDirectory.toString())
+    }
+}
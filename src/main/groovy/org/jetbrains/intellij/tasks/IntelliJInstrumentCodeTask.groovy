@@ -1,16 +1,30 @@
 package org.jetbrains.intellij.tasks
 
 import org.apache.tools.ant.BuildException
+import org.apache.tools.ant.BuildEvent
+import org.apache.tools.ant.BuildListener
 import org.gradle.api.file.FileCollection
 import org.gradle.api.file.FileTree
+import org.gradle.api.file.FileVisitDetails
 import org.gradle.api.internal.ConventionTask
+import org.gradle.api.logging.Logger
 import org.gradle.api.tasks.*
+import org.gradle.api.tasks.incremental.IncrementalTaskInputs
+import org.gradle.api.tasks.incremental.InputFileDetails
 import org.jetbrains.annotations.NotNull
+import org.jetbrains.annotations.Nullable
 import org.jetbrains.intellij.dependency.IdeaDependency
 
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+
 class IntelliJInstrumentCodeTask extends ConventionTask {
     private static final String FILTER_ANNOTATION_REGEXP_CLASS = 'com.intellij.ant.ClassFilterAnnotationRegexp'
     private static final LOADER_REF = "java2.loader"
+    private static final int MIN_CLASSES_PER_THREAD = 50
 
     SourceSet sourceSet
 
@@ -51,39 +65,209 @@ class IntelliJInstrumentCodeTask extends ConventionTask {
 
     @SuppressWarnings("GroovyUnusedDeclaration")
     @TaskAction
-    void instrumentClasses() {
+    void instrumentClasses(IncrementalTaskInputs inputs) {
         def outputDir = getOutputDir()
-        copyOriginalClasses(outputDir)
+        def classesDirs = getClassesDirs()
+        def javac2 = getJavac2()
+        boolean rebuild = !inputs.incremental
+        boolean formsChanged = false
+        Set<String> changedFiles = new LinkedHashSet<>()
+        if (!rebuild) {
+            inputs.outOfDate { InputFileDetails change ->
+                def path = relativePath(change.file, classesDirs)
+                if (path != null) {
+                    changedFiles.add(path)
+                } else if (change.file == javac2) {
+                    rebuild = true
+                } else if (change.file.name.endsWith('.form')) {
+                    formsChanged = true
+                }
+            }
+            inputs.removed { InputFileDetails change ->
+                def path = relativePath(change.file, classesDirs)
+                if (path != null) {
+                    new File(outputDir, path).delete()
+                } else if (change.file.name.endsWith('.form')) {
+                    // The class the form was bound to is unknown now, and still has the form compiled in
+                    formsChanged = true
+                    rebuild = true
+                }
+            }
+        }
+        if (rebuild) {
+            outputDir.deleteDir()
+            changedFiles.clear()
+            getOriginalClasses().visit { FileVisitDetails details ->
+                if (!details.directory) {
+                    changedFiles.add(details.relativePath.pathString)
+                }
+            }
+        }
+
+        def forms = getForms()
+        def formClasses = forms.values().findAll { it != null } as Set<String>
+        boolean compileForms = rebuild || formsChanged || formClasses.any { changedFiles.contains(it) }
+        def changedClasses = changedFiles.findAll { it.endsWith('.class') } as Set<String>
+        if (compileForms) {
+            // Forms are compiled all at once into their original classes
+            changedClasses.addAll(formClasses.findAll { findOriginal(it, classesDirs) != null })
+        }
+        (changedFiles - changedClasses).each { copy(findOriginal(it, classesDirs), new File(outputDir, it)) }
 
+        def totalClasses = getOriginalClasses().matching { it.include('**/*.class') }.files.size()
+        if (!changedClasses.isEmpty()) {
+            logger.info("Compiling forms and instrumenting code with nullability preconditions")
+            instrumentInParallel(changedClasses, compileForms ? forms : [:], classesDirs, outputDir)
+        }
+        logger.lifecycle("Instrumented ${changedClasses.size()} classes, skipped ${totalClasses - changedClasses.size()} unchanged classes")
+    }
+
+    private List<File> getClassesDirs() {
+        def output = sourceSet.output
+        return output.hasProperty("classesDirs") ? project.files(output.classesDirs.from).files.toList() : [output.classesDir]
+    }
+
+    /**
+     * Classes are split into groups instrumented on separate threads, each with its own Ant project
+     * and class loader. Nested classes stay in the group of their top-level class.
+     *
+     * @param forms forms to compile with their bound classes, empty if forms are not compiled
+     */
+    private void instrumentInParallel(@NotNull Set<String> classes, @NotNull Map<File, String> forms,
+                                      @NotNull List<File> classesDirs, @NotNull File outputDir) {
         def ideaDependency = getIdeaDependency()
-        def classpath = project.files(
+        def instrumenterClasspath = project.files(
                 getJavac2(),
                 "$ideaDependency.classes/lib/jdom.jar",
                 "$ideaDependency.classes/lib/asm-all.jar",
-                "$ideaDependency.classes/lib/jgoodies-forms.jar")
+                "$ideaDependency.classes/lib/jgoodies-forms.jar").asPath
+        // Unchanged classes of the source set are needed to compute stack frames of the changed ones
+        def compileClasspath = (sourceSet.compileClasspath + project.files(classesDirs)).asPath
+        def sourceDirs = getSourceDirs().files.toList()
+        def temporaryDir = getTemporaryDir()
+        def noSourceDir = new File(temporaryDir, 'no-sources')
+        noSourceDir.mkdirs()
 
-        ant.taskdef(name: 'instrumentIdeaExtensions',
-                classpath: classpath.asPath,
-                loaderref: LOADER_REF,
-                classname: 'com.intellij.ant.InstrumentIdeaExtensions')
+        def groupCount = Math.max(1, Math.min(Runtime.runtime.availableProcessors(),
+                (int) (classes.size() / MIN_CLASSES_PER_THREAD)))
+        List<List<String>> groups = (0..<groupCount).collect { [] }
+        classes.each {
+            def topLevelClass = it.replaceAll(/\$.*|\.class$/, '')
+            groups[Math.floorMod(topLevelClass.hashCode(), groupCount)].add(it)
+        }
+        boolean compileForms = !forms.isEmpty()
+        if (compileForms) {
+            // Forms are compiled by the first group, so their bound classes must be there
+            def formClasses = forms.values() as Set<String>
+            groups.eachWithIndex { group, i ->
+                if (i > 0) {
+                    groups[0].addAll(group.findAll { formClasses.contains(it) })
+                    group.removeAll(formClasses)
+                }
+            }
+        }
+
+        def headlessOldValue = System.setProperty('java.awt.headless', 'true')
+        def pool = Executors.newFixedThreadPool(groupCount)
+        try {
+            def futures = groups.withIndex().findAll { group, i -> !group.isEmpty() }.collect { group, i ->
+                pool.submit({
+                    def stagingDir = new File(temporaryDir, "group-$i")
+                    stagingDir.deleteDir()
+                    group.each { copy(findOriginal(it, classesDirs), new File(stagingDir, it)) }
+                    def srcDirs = noSourceDir.absolutePath
+                    if (compileForms && i == 0) {
+                        // Only forms bound to staged classes, or the Ant task fails not finding the others
+                        def formsDir = new File(temporaryDir, 'forms')
+                        formsDir.deleteDir()
+                        forms.each { form, boundClass ->
+                            if (boundClass == null || group.contains(boundClass)) {
+                                copy(form, new File(formsDir, relativePath(form, sourceDirs)))
+                            }
+                        }
+                        formsDir.mkdirs()
+                        srcDirs = formsDir.absolutePath
+                    }
+                    instrumentCode(instrumenterClasspath, srcDirs, stagingDir, compileClasspath)
+                    group.each { copy(new File(stagingDir, it), new File(outputDir, it)) }
+                    stagingDir.deleteDir()
+                } as Callable<Void>)
+            }
+            futures.each {
+                try {
+                    it.get()
+                }
+                catch (ExecutionException e) {
+                    throw e.cause
+                }
+            }
+        }
+        finally {
+            pool.shutdownNow()
+            if (headlessOldValue != null) {
+                System.setProperty('java.awt.headless', headlessOldValue)
+            } else {
+                System.clearProperty('java.awt.headless')
+            }
+        }
+    }
 
-        logger.info("Compiling forms and instrumenting code with nullability preconditions")
-        boolean instrumentNotNull = prepareNotNullInstrumenting(classpath)
-        instrumentCode(getSourceDirs(), outputDir, instrumentNotNull)
+    /**
+     * @return forms of the source set with the paths of their bound classes relative to the classes directory,
+     * or null for forms not bound to a class
+     */
+    private Map<File, String> getForms() {
+        def forms = new LinkedHashMap<File, String>()
+        getSourceDirs().asFileTree.matching { it.include('**/*.form') }.each { File form ->
+            def matcher = form.text =~ /bind-to-class="([^"]+)"/
+            forms.put(form, matcher.find() ? matcher.group(1).replace('.', '/') + '.class' : null)
+        }
+        return forms
+    }
+
+    @Nullable
+    private static String relativePath(@NotNull File file, @NotNull List<File> roots) {
+        for (def root : roots) {
+            def rootPath = root.absolutePath + File.separator
+            if (file.absolutePath.startsWith(rootPath)) {
+                return file.absolutePath.substring(rootPath.length()).replace(File.separatorChar, '/' as char)
+            }
+        }
+        return null
+    }
+
+    @Nullable
+    private static File findOriginal(@NotNull String path, @NotNull List<File> roots) {
+        return roots.collect { new File(it, path) }.find { it.isFile() }
     }
 
+    private static void copy(@NotNull File source, @NotNull File target) {
+        target.parentFile.mkdirs()
+        Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING)
+    }
 
-    private void copyOriginalClasses(@NotNull File outputDir) {
-        outputDir.deleteDir()
-        project.copy {
-            from getOriginalClasses()
-            into outputDir
+    private void instrumentCode(@NotNull String instrumenterClasspath, @NotNull String srcDirs, @NotNull File destinationDir,
+                                @NotNull String compileClasspath) {
+        def ant = new AntBuilder()
+        ant.project.buildListeners.toList().each { ant.project.removeBuildListener(it) }
+        ant.project.addBuildListener(new AntLoggingAdapter(logger))
+        ant.taskdef(name: 'instrumentIdeaExtensions',
+                classpath: instrumenterClasspath,
+                loaderref: LOADER_REF,
+                classname: 'com.intellij.ant.InstrumentIdeaExtensions')
+        boolean instrumentNotNull = prepareNotNullInstrumenting(ant, instrumenterClasspath)
+        ant.instrumentIdeaExtensions(srcdir: srcDirs,
+                destdir: destinationDir, classpath: compileClasspath,
+                includeantruntime: false, instrumentNotNull: instrumentNotNull) {
+            if (instrumentNotNull) {
+                ant.skip(pattern: 'kotlin/Metadata')
+            }
         }
     }
 
-    private boolean prepareNotNullInstrumenting(@NotNull FileCollection classpath) {
+    private boolean prepareNotNullInstrumenting(@NotNull AntBuilder ant, @NotNull String classpath) {
         try {
-            ant.typedef(name: 'skip', classpath: classpath.asPath, loaderref: LOADER_REF,
+            ant.typedef(name: 'skip', classpath: classpath, loaderref: LOADER_REF,
                     classname: FILTER_ANNOTATION_REGEXP_CLASS)
         } catch (BuildException e) {
             def cause = e.getCause()
@@ -98,20 +282,42 @@ class IntelliJInstrumentCodeTask extends ConventionTask {
         return true
     }
 
-    private void instrumentCode(@NotNull FileCollection srcDirs, @NotNull File outputDir, boolean instrumentNotNull) {
-        def headlessOldValue = System.setProperty('java.awt.headless', 'true')
-        ant.instrumentIdeaExtensions(srcdir: srcDirs.asPath,
-                destdir: outputDir, classpath: sourceSet.compileClasspath.asPath,
-                includeantruntime: false, instrumentNotNull: instrumentNotNull) {
-            if (instrumentNotNull) {
-                ant.skip(pattern: 'kotlin/Metadata')
-            }
+    /**
+     * Passes messages of a standalone Ant project to the task logger, as Gradle does for its own Ant builder.
+     */
+    private static class AntLoggingAdapter implements BuildListener {
+        private final Logger logger
+
+        AntLoggingAdapter(@NotNull Logger logger) {
+            this.logger = logger
         }
-        if (headlessOldValue != null) {
-            System.setProperty('java.awt.headless', headlessOldValue)
-        } else {
-            System.clearProperty('java.awt.headless')
+
+        @Override
+        void messageLogged(BuildEvent event) {
+            switch (event.priority) {
+                case org.apache.tools.ant.Project.MSG_ERR: logger.error(event.message); break
+                case org.apache.tools.ant.Project.MSG_WARN: logger.warn(event.message); break
+                case org.apache.tools.ant.Project.MSG_INFO: logger.info(event.message); break
+                default: logger.debug(event.message)
+            }
         }
-    }
 
+        @Override
+        void buildStarted(BuildEvent event) {}
+
+        @Override
+        void buildFinished(BuildEvent event) {}
+
+        @Override
+        void targetStarted(BuildEvent event) {}
+
+        @Override
+        void targetFinished(BuildEvent event) {}
+
+        @Override
+        void taskStarted(BuildEvent event) {}
+
+        @Override
+        void taskFinished(BuildEvent event) {}
+    }
 }
@@ -1,7 +1,9 @@
 package org.jetbrains.intellij.tasks
 
+import org.gradle.api.InvalidUserDataException
 import org.gradle.api.file.CopySpec
 import org.gradle.api.file.FileCollection
+import org.gradle.api.internal.file.copy.CopyAction
 import org.gradle.api.plugins.JavaPlugin
 import org.gradle.api.tasks.*
 import org.gradle.internal.FileUtils
@@ -14,9 +16,12 @@ import org.xml.sax.SAXParseException
 
 @SuppressWarnings("GroovyUnusedDeclaration")
 class PrepareSandboxTask extends Sync {
+    static final String COPY = 'copy'
+
     Object pluginName
     Object pluginJar
     Object configDirectory
+    Object linkMode
     List<Object> librariesToIgnore = []
     List<Object> pluginDependencies = []
 
@@ -64,6 +69,23 @@ class PrepareSandboxTask extends Sync {
         this.configDirectory = configDirectory
     }
 
+    /**
+     * {@code 'copy'} copies everything on each change. {@code 'hardlink'} and {@code 'symlink'} link files from the
+     * Gradle and IDE caches and copy the files of the build only if their content changed.
+     */
+    @Input
+    String getLinkMode() {
+        Utils.stringInput(linkMode) ?: COPY
+    }
+
+    void setLinkMode(Object linkMode) {
+        this.linkMode = linkMode
+    }
+
+    void linkMode(Object linkMode) {
+        this.linkMode = linkMode
+    }
+
     @Input
     @Optional
     Collection<PluginDependency> getPluginDependencies() {
@@ -99,9 +121,29 @@ class PrepareSandboxTask extends Sync {
     @Override
     protected void copy() {
         disableIdeUpdate()
+        if (getLinkMode() == COPY) {
+            SandboxCopyAction.unlinkAll(getDestinationDir(), getManifestFile())
+        }
         super.copy()
     }
 
+    @Override
+    protected CopyAction createCopyAction() {
+        def linkMode = getLinkMode()
+        if (linkMode == COPY) {
+            return super.createCopyAction()
+        }
+        if (linkMode != SandboxCopyAction.HARDLINK && linkMode != SandboxCopyAction.SYMLINK) {
+            throw new InvalidUserDataException("Unknown sandbox link mode '$linkMode', expected one of " +
+                    "'$COPY', '$SandboxCopyAction.HARDLINK' or '$SandboxCopyAction.SYMLINK'")
+        }
+        return new SandboxCopyAction(getDestinationDir(), linkMode, getManifestFile(), project.rootDir)
+    }
+
+    private File getManifestFile() {
+        new File(temporaryDir, 'sandbox-manifest.properties')
+    }
+
     private void configurePlugin() {
         CopySpec plugin = mainSpec.addChild().into { "${getPluginName()}/lib" }
         plugin.from {
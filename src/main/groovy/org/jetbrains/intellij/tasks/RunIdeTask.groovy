@@ -4,6 +4,7 @@ import org.gradle.api.tasks.*
 import org.gradle.internal.jvm.Jvm
 import org.gradle.internal.os.OperatingSystem
 import org.gradle.util.CollectionUtils
+import org.jetbrains.intellij.ClassDataSharing
 import org.jetbrains.intellij.Utils
 
 class RunIdeTask extends JavaExec {
@@ -29,6 +30,7 @@ class RunIdeTask extends JavaExec {
     private Object systemDirectory
     private Object pluginsDirectory
     private Object jbreVersion
+    private Object classDataSharing
 
     List<String> getRequiredPluginIds() {
         CollectionUtils.stringize(requiredPluginIds.collect {
@@ -59,6 +61,21 @@ class RunIdeTask extends JavaExec {
         this.jbreVersion = jbreVersion
     }
 
+    @Input
+    @Optional
+    Boolean getClassDataSharing() {
+        def value = classDataSharing instanceof Closure ? (classDataSharing as Closure).call() : classDataSharing
+        value as Boolean
+    }
+
+    void setClassDataSharing(Object classDataSharing) {
+        this.classDataSharing = classDataSharing
+    }
+
+    void classDataSharing(Object classDataSharing) {
+        this.classDataSharing = classDataSharing
+    }
+
     @InputDirectory
     File getIdeaDirectory() {
         ideaDirectory != null ? project.file(ideaDirectory) : null
@@ -121,9 +138,25 @@ class RunIdeTask extends JavaExec {
         workingDir = project.file("${getIdeaDirectory()}/bin/")
         configureClasspath()
         configureSystemProperties()
-        configureJvmArgs()
+        def classDataSharing = createClassDataSharing()
+        configureJvmArgs(classDataSharing)
         executable(getExecutable())
-        super.exec()
+        boolean exited = false
+        try {
+            super.exec()
+            exited = true
+        }
+        finally {
+            classDataSharing?.afterRun(exited)
+        }
+    }
+
+    private ClassDataSharing createClassDataSharing() {
+        if (!getClassDataSharing()) {
+            return null
+        }
+        return new ClassDataSharing(new File(getSystemDirectory(), 'cds'), getExecutable(),
+                Utils.ideaBuildNumber(getIdeaDirectory()), classpath.files as List)
     }
 
     private void configureClasspath() {
@@ -172,7 +205,7 @@ class RunIdeTask extends JavaExec {
         }
     }
 
-    def configureJvmArgs() {
-        jvmArgs = Utils.getIdeaJvmArgs(this, getJvmArgs(), getIdeaDirectory())
+    def configureJvmArgs(ClassDataSharing classDataSharing) {
+        jvmArgs = Utils.getIdeaJvmArgs(this, getJvmArgs(), getIdeaDirectory(), classDataSharing)
     }
 }
@@ -0,0 +1,206 @@
+package org.jetbrains.intellij.tasks
+
+import org.gradle.api.internal.file.CopyActionProcessingStreamAction
+import org.gradle.api.internal.file.copy.CopyAction
+import org.gradle.api.internal.file.copy.CopyActionProcessingStream
+import org.gradle.api.internal.file.copy.FileCopyDetailsInternal
+import org.gradle.api.tasks.WorkResult
+import org.gradle.api.tasks.WorkResults
+import org.jetbrains.annotations.NotNull
+import org.jetbrains.intellij.IntelliJPlugin
+import org.jetbrains.intellij.Utils
+
+import java.nio.file.*
+import java.nio.file.attribute.BasicFileAttributes
+
+/**
+ * Synchronizes the sandbox touching as few bytes as possible.
+ *
+ * Files from outside of the root project, i.e. from the Gradle and IDE caches, are hard-linked or symlinked.
+ * Other files are copied only if their content changed, according to a manifest of their sizes,
+ * modification times and hashes. Files not in the copy spec are deleted, like {@link org.gradle.api.tasks.Sync} does.
+ */
+class SandboxCopyAction implements CopyAction {
+    static final String HARDLINK = 'hardlink'
+    static final String SYMLINK = 'symlink'
+
+    private final File destinationDir
+    private final String linkMode
+    private final File manifestFile
+    private final Path rootDir
+
+    SandboxCopyAction(@NotNull File destinationDir, @NotNull String linkMode, @NotNull File manifestFile,
+                      @NotNull File rootDir) {
+        this.destinationDir = destinationDir
+        this.linkMode = linkMode
+        this.manifestFile = manifestFile
+        this.rootDir = rootDir.toPath().toAbsolutePath().normalize()
+    }
+
+    @Override
+    WorkResult execute(@NotNull CopyActionProcessingStream stream) {
+        def oldManifest = readManifest(manifestFile)
+        def manifest = new Properties()
+        def visited = new HashSet<Path>()
+        def destination = destinationDir.toPath().toAbsolutePath().normalize()
+        boolean didWork = false
+        stream.process({ FileCopyDetailsInternal details ->
+            def target = destination.resolve(details.relativePath.pathString)
+            visited.add(target)
+            if (details.directory) {
+                Files.createDirectories(target)
+                return
+            }
+            def key = details.relativePath.pathString
+            def entry = oldManifest.getProperty(key)
+            def source = details.file.toPath().toAbsolutePath().normalize()
+            def newEntry = source.startsWith(rootDir) ? copyIfChanged(source, target, entry) : link(source, target, entry)
+            didWork |= newEntry != entry
+            manifest.setProperty(key, newEntry)
+        } as CopyActionProcessingStreamAction)
+        didWork |= deleteUnvisited(destination, visited)
+        writeManifest(manifest)
+        return WorkResults.didWork(didWork)
+    }
+
+    /**
+     * Removes symbolic links and hard-linked files, so that copying over them doesn't write into the caches.
+     * The destination itself is checked rather than the manifest, which may be missing or stale,
+     * e.g. after an interrupted run. The manifest is used only where link counts are unavailable.
+     */
+    static void unlinkAll(@NotNull File destinationDir, @NotNull File manifestFile) {
+        def destination = destinationDir.toPath()
+        if (Files.isDirectory(destination)) {
+            def manifest = readManifest(manifestFile)
+            Files.walkFileTree(destination, new SimpleFileVisitor<Path>() {
+                @Override
+                FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isSymbolicLink() || isHardLinked(file, destination, manifest)) {
+                        Files.delete(file)
+                    }
+                    return FileVisitResult.CONTINUE
+                }
+            })
+        }
+        manifestFile.delete()
+    }
+
+    private static boolean isHardLinked(@NotNull Path file, @NotNull Path destination, @NotNull Properties manifest) {
+        try {
+            return (Files.getAttribute(file, 'unix:nlink', LinkOption.NOFOLLOW_LINKS) as int) > 1
+        }
+        catch (UnsupportedOperationException | IllegalArgumentException ignored) {
+            def key = destination.relativize(file).toString().replace(File.separatorChar, '/' as char)
+            return manifest.getProperty(key, '').startsWith('link:')
+        }
+    }
+
+    @NotNull
+    private String link(@NotNull Path source, @NotNull Path target, String entry) {
+        def newEntry = "link:$source".toString()
+        if (entry == newEntry && Files.exists(target) && isLinkTo(target, source)) {
+            return entry
+        }
+        Files.createDirectories(target.parent)
+        Files.deleteIfExists(target)
+        if (linkMode == HARDLINK) {
+            try {
+                Files.createLink(target, source)
+                return newEntry
+            }
+            catch (IOException | UnsupportedOperationException e) {
+                IntelliJPlugin.LOG.info("Cannot hard-link $source, falling back to a symbolic link: $e.message")
+            }
+        }
+        try {
+            Files.createSymbolicLink(target, source)
+            return newEntry
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            IntelliJPlugin.LOG.info("Cannot link $source, falling back to copying: $e.message")
+        }
+        return copy(source, target)
+    }
+
+    private static boolean isLinkTo(@NotNull Path target, @NotNull Path source) {
+        if (Files.isSymbolicLink(target)) {
+            return Files.readSymbolicLink(target) == source
+        }
+        return Files.exists(source) && Files.isSameFile(target, source)
+    }
+
+    /**
+     * Entries of copied files are {@code copy:size:lastModified:sha256} of their source.
+     */
+    @NotNull
+    private static String copyIfChanged(@NotNull Path source, @NotNull Path target, String entry) {
+        if (entry == null || !entry.startsWith('copy:') || !Files.isRegularFile(target)
+                || Files.isSymbolicLink(target) || Files.size(target) != Files.size(source)) {
+            return copy(source, target)
+        }
+        def (size, lastModified, hash) = entry.substring('copy:'.length()).split(':', 3)
+        if (size != Files.size(source) as String) {
+            return copy(source, target)
+        }
+        if (lastModified == Files.getLastModifiedTime(source).toMillis() as String) {
+            return entry
+        }
+        // Rebuilt, but maybe with the same content
+        def sourceHash = Utils.sha256(source.toFile())
+        return sourceHash == hash ? manifestEntry(source, sourceHash) : copy(source, target, sourceHash)
+    }
+
+    @NotNull
+    private static String copy(@NotNull Path source, @NotNull Path target, String hash = null) {
+        Files.createDirectories(target.parent)
+        // Replacing deletes the target first, so a previously linked file is not written through
+        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING)
+        return manifestEntry(source, hash ?: Utils.sha256(source.toFile()))
+    }
+
+    @NotNull
+    private static String manifestEntry(@NotNull Path source, @NotNull String hash) {
+        return "copy:${Files.size(source)}:${Files.getLastModifiedTime(source).toMillis()}:$hash".toString()
+    }
+
+    private static boolean deleteUnvisited(@NotNull Path destination, @NotNull Set<Path> visited) {
+        if (!Files.isDirectory(destination)) {
+            return false
+        }
+        boolean deleted = false
+        Files.walkFileTree(destination, new SimpleFileVisitor<Path>() {
+            @Override
+            FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (!visited.contains(file)) {
+                    Files.delete(file)
+                    deleted = true
+                }
+                return FileVisitResult.CONTINUE
+            }
+
+            @Override
+            FileVisitResult postVisitDirectory(Path directory, IOException e) {
+                if (directory != destination && !visited.contains(directory) && directory.toFile().list().length == 0) {
+                    Files.delete(directory)
+                    deleted = true
+                }
+                return FileVisitResult.CONTINUE
+            }
+        })
+        return deleted
+    }
+
+    @NotNull
+    private static Properties readManifest(@NotNull File manifestFile) {
+        def manifest = new Properties()
+        if (manifestFile.exists()) {
+            manifestFile.withInputStream { manifest.load(it) }
+        }
+        return manifest
+    }
+
+    private void writeManifest(@NotNull Properties manifest) {
+        manifestFile.parentFile.mkdirs()
+        manifestFile.withOutputStream { manifest.store(it, null) }
+    }
+}
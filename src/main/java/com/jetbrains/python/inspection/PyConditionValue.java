@@ -0,0 +1,53 @@
+package com.jetbrains.python.inspection;
+
+/**
+ * Immutable result of evaluating a (sub)condition.
+ */
+final class PyConditionValue {
+    enum Type {
+        UNDEFINED,
+        BOOLEAN,
+        VALUE
+    }
+
+    static final PyConditionValue UNDEFINED = new PyConditionValue(Type.UNDEFINED, false, PyValue.UNDEFINED);
+    static final PyConditionValue TRUE = new PyConditionValue(Type.BOOLEAN, true, PyValue.ONE);
+    static final PyConditionValue FALSE = new PyConditionValue(Type.BOOLEAN, false, PyValue.ZERO);
+
+    private final Type type;
+    private final boolean result;
+    private final PyValue value;
+
+    private PyConditionValue(Type t, boolean res, PyValue val) {
+        type = t;
+        result = res;
+        value = val;
+    }
+
+    static PyConditionValue of(boolean res) {
+        return res ? TRUE : FALSE;
+    }
+
+    static PyConditionValue of(PyValue res) {
+        if (!res.isDetermined()) {
+            return UNDEFINED;
+        }
+        return new PyConditionValue(Type.VALUE, res.isTrue(), res);
+    }
+
+    Type getType() { return type; }
+
+    boolean isDetermined() { return type != Type.UNDEFINED; }
+
+    /**
+     * Undefined behaviour when type == Type.UNDEFINED
+     * @return boolean result of condition expression
+     */
+    boolean getBoolean() { return result; }
+
+    /**
+     * Undefined behaviour when type == Type.UNDEFINED
+     * @return value of condition expression
+     */
+    PyValue getValue() { return value; }
+}
@@ -0,0 +1,115 @@
+package com.jetbrains.python.inspection;
+
+import com.intellij.codeInspection.BatchQuickFix;
+import com.intellij.codeInspection.CommonProblemDescriptor;
+import com.intellij.codeInspection.LocalQuickFix;
+import com.intellij.codeInspection.ProblemDescriptor;
+import com.intellij.codeInspection.QuickFix;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.jetbrains.python.psi.PyExpression;
+import com.jetbrains.python.psi.PyIfPart;
+import com.jetbrains.python.psi.PyIfStatement;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base of the fixes for an {@code if}/{@code elif} condition which is always true or false.
+ * Applied to many problems at once, all of them go into a single command, and the documents are
+ * synchronized with PSI once per file instead of once per fix.
+ */
+abstract class PyConstantConditionFix implements LocalQuickFix, BatchQuickFix<CommonProblemDescriptor> {
+    protected final boolean value;
+
+    PyConstantConditionFix(boolean value) {
+        this.value = value;
+    }
+
+    /**
+     * Called in a write action for a valid condition of an {@code if} or {@code elif} part.
+     */
+    protected abstract void apply(@NotNull Project project, @NotNull PyExpression condition, @NotNull PyIfPart part,
+                                  @NotNull PyIfStatement statement);
+
+    @Override
+    public void applyFix(@NotNull Project project, @NotNull ProblemDescriptor descriptor) {
+        applyTo(project, descriptor.getPsiElement());
+    }
+
+    private void applyTo(@NotNull Project project, @Nullable PsiElement element) {
+        // A fix applied before may have removed the whole statement
+        if (element == null || !element.isValid() || !(element instanceof PyExpression)
+                || !(element.getParent() instanceof PyIfPart) || !(element.getParent().getParent() instanceof PyIfStatement)) {
+            return;
+        }
+        PyIfPart part = (PyIfPart) element.getParent();
+        apply(project, (PyExpression) element, part, (PyIfStatement) part.getParent());
+    }
+
+    @Override
+    public void applyFix(@NotNull Project project, @NotNull CommonProblemDescriptor[] descriptors,
+                         @NotNull List<PsiElement> psiElementsToIgnore, @Nullable Runnable refreshViews) {
+        Map<PsiFile, List<ProblemDescriptor>> byFile = new LinkedHashMap<>();
+        for (CommonProblemDescriptor descriptor : descriptors) {
+            if (!(descriptor instanceof ProblemDescriptor)) {
+                continue;
+            }
+            PsiElement element = ((ProblemDescriptor) descriptor).getPsiElement();
+            if (element != null && element.isValid() && !psiElementsToIgnore.contains(element)) {
+                byFile.computeIfAbsent(element.getContainingFile(), f -> new ArrayList<>())
+                      .add((ProblemDescriptor) descriptor);
+            }
+        }
+        if (byFile.isEmpty()) {
+            return;
+        }
+        WriteCommandAction.runWriteCommandAction(project, getFamilyName(), null, () -> {
+            PsiDocumentManager documentManager = PsiDocumentManager.getInstance(project);
+            for (Map.Entry<PsiFile, List<ProblemDescriptor>> entry : byFile.entrySet()) {
+                List<ProblemDescriptor> fileDescriptors = entry.getValue();
+                // From the end of the file, so nested conditions are fixed before their enclosing statement
+                fileDescriptors.sort((a, b) -> Integer.compare(b.getPsiElement().getTextRange().getStartOffset(),
+                        a.getPsiElement().getTextRange().getStartOffset()));
+                for (ProblemDescriptor descriptor : fileDescriptors) {
+                    PyConstantConditionFix fix = findFix(descriptor);
+                    if (fix != null) {
+                        fix.applyTo(project, descriptor.getPsiElement());
+                    }
+                }
+                Document document = documentManager.getDocument(entry.getKey());
+                if (document != null) {
+                    documentManager.doPostponedOperationsAndUnblockDocument(document);
+                    documentManager.commitDocument(document);
+                }
+            }
+        }, byFile.keySet().toArray(PsiFile.EMPTY_ARRAY));
+        if (refreshViews != null) {
+            refreshViews.run();
+        }
+    }
+
+    /**
+     * @return the fix of this kind registered for the descriptor, it knows the value of its condition
+     */
+    @Nullable
+    private PyConstantConditionFix findFix(@NotNull ProblemDescriptor descriptor) {
+        QuickFix[] fixes = descriptor.getFixes();
+        if (fixes != null) {
+            for (QuickFix fix : fixes) {
+                if (fix.getClass() == getClass()) {
+                    return (PyConstantConditionFix) fix;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,245 @@
+package com.jetbrains.python.inspection;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.PsiElement;
+import com.jetbrains.python.inspection.PyConstantEvaluator.PyDiagnostic;
+import com.jetbrains.python.inspection.PyConstantEvaluator.PyEvaluationResult;
+import com.jetbrains.python.psi.PyExpression;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Constant evaluation of Python expressions for all inspections of a project. Must be called in a read action,
+ * and can be called from any number of threads at once.
+ * <p>
+ * Results are kept on the expressions themselves, so all callers share them. Reparsing replaces changed
+ * elements, and the text check catches in-place changes, so edits elsewhere in the file don't cause
+ * re-evaluation. Expressions referring to names also depend on the rest of the file and are re-evaluated
+ * after any change.
+ */
+public final class PyConstantEvaluationService {
+    public static final int DEFAULT_MAX_RESULT_BITS = 1 << 20;
+    public static final int DEFAULT_TIME_LIMIT_MILLIS = 200;
+
+    private static final Key<Result> CACHED_RESULT = Key.create("PyConstantEvaluationService.result");
+    /** Counted even with metrics off, they are cheap and {@link PyConstantExpression} reports them. */
+    private static final AtomicLong CACHE_HITS = new AtomicLong();
+    private static final AtomicLong CACHE_MISSES = new AtomicLong();
+
+    @NotNull
+    public static PyConstantEvaluationService getInstance(@NotNull Project project) {
+        return ServiceManager.getService(project, PyConstantEvaluationService.class);
+    }
+
+    static long getCacheHits() {
+        return CACHE_HITS.get();
+    }
+
+    static long getCacheMisses() {
+        return CACHE_MISSES.get();
+    }
+
+    static void resetCacheCounters() {
+        CACHE_HITS.set(0);
+        CACHE_MISSES.set(0);
+    }
+
+    @NotNull
+    public Result evaluate(@NotNull PyExpression expression) {
+        return evaluate(expression, DEFAULT_MAX_RESULT_BITS, DEFAULT_TIME_LIMIT_MILLIS);
+    }
+
+    /**
+     * @param maxResultBits integer results estimated to need more bits are not computed
+     * @param timeLimitMillis evaluation gives up after this time
+     */
+    @NotNull
+    public Result evaluate(@NotNull PyExpression expression, int maxResultBits, int timeLimitMillis) {
+        final String text = expression.getText();
+        Result cached = getCached(expression, text, maxResultBits, timeLimitMillis);
+        if (cached != null) {
+            return cached;
+        }
+        long start = System.nanoTime();
+        PyConstantLowering.Lowered lowered = PyConstantLowering.lowerInFile(expression);
+        PyEvaluationResult evaluation = createEvaluator(maxResultBits, timeLimitMillis).evaluate(lowered.getIr());
+        return store(expression, new Result(text, expression, lowered, evaluation, maxResultBits, timeLimitMillis),
+                System.nanoTime() - start);
+    }
+
+    /**
+     * Evaluates the expressions without an up-to-date result together, computing their common subexpressions
+     * only once. Meant for all expressions of interest in a file. Each result is cached as soon as it is computed,
+     * so results computed before a cancellation are reused by the next call.
+     *
+     * @return results of all the expressions
+     */
+    @NotNull
+    public Map<PyExpression, Result> evaluateAll(@NotNull List<PyExpression> expressions, int maxResultBits,
+                                                 int timeLimitMillis) {
+        Map<PyExpression, Result> results = new IdentityHashMap<>();
+        List<PyExpression> stale = new ArrayList<>();
+        for (PyExpression expression : expressions) {
+            Result cached = getCached(expression, expression.getText(), maxResultBits, timeLimitMillis);
+            if (cached != null) {
+                results.put(expression, cached);
+            } else {
+                stale.add(expression);
+            }
+        }
+        PyConstantEvaluator evaluator = createEvaluator(maxResultBits, timeLimitMillis);
+        PyConstantFileAnalysis.evaluate(stale, evaluator, evaluated -> {
+            PyExpression expression = evaluated.getCondition();
+            Result result = new Result(expression.getText(), expression, evaluated.getLowered(), evaluated.getResult(),
+                    maxResultBits, timeLimitMillis);
+            results.put(expression, store(expression, result, evaluated.getNanos()));
+        });
+        return results;
+    }
+
+    @NotNull
+    private static PyConstantEvaluator createEvaluator(int maxResultBits, int timeLimitMillis) {
+        return new PyConstantEvaluator(maxResultBits, TimeUnit.MILLISECONDS.toNanos(timeLimitMillis),
+                ProgressManager::checkCanceled);
+    }
+
+    @Nullable
+    private static Result getCached(@NotNull PyExpression expression, @NotNull String text, int maxResultBits,
+                                    int timeLimitMillis) {
+        Result cached = expression.getUserData(CACHED_RESULT);
+        if (cached == null || !cached.isUpToDate(text, expression, maxResultBits, timeLimitMillis)) {
+            return null;
+        }
+        CACHE_HITS.incrementAndGet();
+        return cached;
+    }
+
+    @NotNull
+    private static Result store(@NotNull PyExpression expression, @NotNull Result result, long nanos) {
+        CACHE_MISSES.incrementAndGet();
+        if (!result.evaluation.isOutOfTime()) {
+            expression.putUserData(CACHED_RESULT, result);
+        }
+        if (PyConstantMetrics.getInstance().isEnabled()) {
+            PyConstantMetrics.getInstance().recordEvaluation(result.lowered.getDepth(), result.evaluation, nanos);
+        }
+        return result;
+    }
+
+    /**
+     * Immutable value of an expression with the problems found evaluating it.
+     */
+    public static final class Result {
+        private final String text;
+        /** Modification stamp of the file, -1 if the result depends only on the text */
+        private final long fileStamp;
+        /** Stamp of other files for expressions using imported constants, -1 otherwise */
+        private final long otherFilesStamp;
+        private final int maxResultBits;
+        private final int timeLimitMillis;
+        private final PyConstantLowering.Lowered lowered;
+        private final PyEvaluationResult evaluation;
+        private final List<Diagnostic> diagnostics;
+
+        private Result(String text, PyExpression expression, PyConstantLowering.Lowered lowered,
+                       PyEvaluationResult evaluation, int maxResultBits, int timeLimitMillis) {
+            this.text = text;
+            this.fileStamp = lowered.usesNames() ? expression.getContainingFile().getModificationStamp() : -1;
+            this.otherFilesStamp = lowered.usesOtherFiles()
+                                   ? PyConstantSymbolTable.otherFilesStamp(expression.getProject()) : -1;
+            this.maxResultBits = maxResultBits;
+            this.timeLimitMillis = timeLimitMillis;
+            this.lowered = lowered;
+            this.evaluation = evaluation;
+            List<Diagnostic> diagnostics = new ArrayList<>(0);
+            for (PyDiagnostic diagnostic : evaluation.getDiagnostics()) {
+                diagnostics.add(new Diagnostic(lowered.getElement(diagnostic.getNode()), diagnostic));
+            }
+            this.diagnostics = diagnostics.isEmpty() ? Collections.<Diagnostic>emptyList()
+                                                     : Collections.unmodifiableList(diagnostics);
+        }
+
+        /**
+         * @return true if the truth value of the expression is known
+         */
+        public boolean isDetermined() { return evaluation.getValue().isDetermined(); }
+
+        /**
+         * Undefined behaviour unless {@link #isDetermined()}
+         * @return truth value of the expression
+         */
+        public boolean getBoolean() { return evaluation.getValue().getBoolean(); }
+
+        @NotNull
+        public List<Diagnostic> getDiagnostics() { return diagnostics; }
+
+        /**
+         * A result computed with a budget at least as large and not cut short by it is the same for any budget.
+         */
+        private boolean isUpToDate(String currentText, PyExpression expression, int maxResultBits,
+                                   int timeLimitMillis) {
+            if (!text.equals(currentText)) {
+                return false;
+            } else if (this.maxResultBits != maxResultBits || this.timeLimitMillis != timeLimitMillis) {
+                for (Diagnostic diagnostic : diagnostics) {
+                    if (!diagnostic.isError()) {
+                        return false;
+                    }
+                }
+                if (this.maxResultBits > maxResultBits) {
+                    return false;
+                }
+            }
+            if (fileStamp != -1 && fileStamp != expression.getContainingFile().getModificationStamp()) {
+                return false;
+            } else if (otherFilesStamp != -1
+                       && otherFilesStamp != PyConstantSymbolTable.otherFilesStamp(expression.getProject())) {
+                return false;
+            }
+            for (Diagnostic diagnostic : diagnostics) {
+                if (!diagnostic.element.isValid()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A problem found in a part of the expression.
+     */
+    public static final class Diagnostic {
+        private final PsiElement element;
+        private final PyDiagnostic diagnostic;
+
+        private Diagnostic(PsiElement element, PyDiagnostic diagnostic) {
+            this.element = element;
+            this.diagnostic = diagnostic;
+        }
+
+        /**
+         * @return the subexpression the problem was found in
+         */
+        @NotNull
+        public PsiElement getElement() { return element; }
+
+        @NotNull
+        public String getMessage() { return diagnostic.getMessage(); }
+
+        /**
+         * @return true if Python raises at runtime, false if evaluation gave up because of the size or time limit
+         */
+        public boolean isError() { return diagnostic.getKind() == PyDiagnostic.Kind.ERROR; }
+    }
+}
@@ -0,0 +1,498 @@
+package com.jetbrains.python.inspection;
+
+import com.jetbrains.python.inspection.PyConstantIr.Op;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Evaluates {@link PyConstantIr}. Doesn't touch PSI, so it can run on any thread; a single instance
+ * can be shared because all per-evaluation state lives in {@link Run}.
+ */
+final class PyConstantEvaluator {
+    private final long maxResultBits;
+    private final long timeLimitNanos;
+    private final Runnable checkCanceled;
+
+    /**
+     * @param maxResultBits integer results estimated to need more bits are not computed
+     * @param timeLimitNanos evaluation of one expression gives up after this time
+     * @param checkCanceled called for every node, may throw to abort the evaluation
+     */
+    PyConstantEvaluator(long maxResultBits, long timeLimitNanos, @NotNull Runnable checkCanceled) {
+        this.maxResultBits = maxResultBits;
+        this.timeLimitNanos = timeLimitNanos;
+        this.checkCanceled = checkCanceled;
+    }
+
+    @NotNull
+    PyEvaluationResult evaluate(@NotNull PyConstantIr ir) {
+        return evaluate(ir, null);
+    }
+
+    /**
+     * @param shared results of subexpressions evaluated before, which are reused instead of evaluating them again
+     */
+    @NotNull
+    PyEvaluationResult evaluate(@NotNull PyConstantIr ir, @Nullable SharedSubexpressions shared) {
+        Run run = new Run(ir, shared);
+        PyConditionValue value = run.processAll();
+        return new PyEvaluationResult(value, run.diagnostics, run.outOfTime, run.maxResultBitLength,
+                run.nodesEvaluated);
+    }
+
+    /**
+     * Subtrees of an IR whose results can be shared with other expressions, see {@link PyConstantFileAnalysis}.
+     * Several shareable subtrees can start at the same node, when one is the left operand of the other.
+     */
+    interface SharedSubexpressions {
+        /**
+         * @return the largest shareable subtree starting at the node or -1
+         */
+        int outermostAt(int start);
+
+        /**
+         * @return the next smaller shareable subtree starting where {@code root} starts or -1
+         */
+        int nextInner(int root);
+
+        boolean isShareable(int node);
+
+        @Nullable
+        SharedResult get(int root);
+
+        void put(int root, @NotNull SharedResult result);
+    }
+
+    /**
+     * Value of a subtree together with its diagnostics, which refer to nodes relative to the start of the subtree.
+     */
+    static final class SharedResult {
+        private final PyConditionValue value;
+        private final List<PyDiagnostic> diagnostics;
+
+        private SharedResult(PyConditionValue value, List<PyDiagnostic> diagnostics) {
+            this.value = value;
+            this.diagnostics = diagnostics;
+        }
+    }
+
+    private interface UnaryOperation {
+        PyConditionValue apply(PyConditionValue operand);
+    }
+
+    private interface BinaryOperation {
+        /**
+         * Operands are numbers, of integer type for integer-only operations. Only {@code +} also gets
+         * strings, bytes and tuples.
+         */
+        PyConditionValue apply(Run run, int node, PyValue l, PyValue r);
+    }
+
+    /**
+     * Dense tables indexed by {@link Op#ordinal()}.
+     */
+    private static final UnaryOperation[] UNARY_OPERATIONS = new UnaryOperation[Op.values().length];
+    private static final BinaryOperation[] BINARY_OPERATIONS = new BinaryOperation[Op.values().length];
+    private static final IntPredicate[] COMPARISONS = new IntPredicate[Op.values().length];
+
+    static {
+        UNARY_OPERATIONS[Op.POS.ordinal()] = operand -> PyConditionValue.of(operand.getValue());
+        UNARY_OPERATIONS[Op.NEG.ordinal()] = operand -> PyConditionValue.of(operand.getValue().negate());
+        UNARY_OPERATIONS[Op.NOT.ordinal()] = operand -> PyConditionValue.of(!operand.getBoolean());
+        UNARY_OPERATIONS[Op.INVERT.ordinal()] =
+                operand -> PyConditionValue.of(operand.getValue().negate().subtract(PyValue.ONE));
+
+        COMPARISONS[Op.LT.ordinal()] = cmp -> cmp < 0;
+        COMPARISONS[Op.LE.ordinal()] = cmp -> cmp <= 0;
+        COMPARISONS[Op.GT.ordinal()] = cmp -> cmp > 0;
+        COMPARISONS[Op.GE.ordinal()] = cmp -> cmp >= 0;
+        COMPARISONS[Op.EQ.ordinal()] = cmp -> cmp == 0;
+        COMPARISONS[Op.NE.ordinal()] = cmp -> cmp != 0;
+
+        BINARY_OPERATIONS[Op.ADD.ordinal()] = (run, node, l, r) -> {
+            if (!run.fitsBudget(node, PyValue.concatBitLength(l, r))) {
+                return PyConditionValue.UNDEFINED;
+            }
+            return PyConditionValue.of(l.add(r));
+        };
+        BINARY_OPERATIONS[Op.SUB.ordinal()] = (run, node, l, r) -> PyConditionValue.of(l.subtract(r));
+        BINARY_OPERATIONS[Op.MUL.ordinal()] = (run, node, l, r) -> {
+            if (!run.fitsBudget(node, PyValue.multiplyBitLength(l, r))) {
+                return PyConditionValue.UNDEFINED;
+            }
+            return PyConditionValue.of(l.multiply(r));
+        };
+        BINARY_OPERATIONS[Op.DIV.ordinal()] = (run, node, l, r) -> {
+            if (r.equals(PyValue.ZERO)) {
+                run.report(node, "Division by 0");
+                return PyConditionValue.UNDEFINED;
+            }
+            return PyConditionValue.of(l.divide(r));
+        };
+        BINARY_OPERATIONS[Op.POW.ordinal()] = (run, node, l, r) -> {
+            if (l.equals(PyValue.ZERO) && r.compareTo(PyValue.ZERO) < 0) {
+                run.report(node, "0 cannot be raised to a negative power (" + r + ")");
+                return PyConditionValue.UNDEFINED;
+            }
+            if (!run.fitsBudget(node, l.powBitLength(r))) {
+                return PyConditionValue.UNDEFINED;
+            }
+            return PyConditionValue.of(l.pow(r));
+        };
+        BINARY_OPERATIONS[Op.FLOORDIV.ordinal()] = (run, node, l, r) -> {
+            if (r.equals(PyValue.ZERO)) {
+                run.report(node, "Division by 0");
+                return PyConditionValue.UNDEFINED;
+            }
+            return PyConditionValue.of(l.floordivide(r));
+        };
+        BINARY_OPERATIONS[Op.MOD.ordinal()] = (run, node, l, r) -> {
+            if (r.equals(PyValue.ZERO)) {
+                run.report(node, "Taking modulo by 0");
+                return PyConditionValue.UNDEFINED;
+            }
+            return PyConditionValue.of(l.mod(r));
+        };
+        BINARY_OPERATIONS[Op.LSHIFT.ordinal()] = (run, node, l, r) -> {
+            if (r.compareTo(PyValue.ZERO) < 0) {
+                run.report(node, "Shifting by negative number (" + r + ")");
+                return PyConditionValue.UNDEFINED;
+            }
+            if (!run.fitsBudget(node, l.shiftLeftBitLength(r))) {
+                return PyConditionValue.UNDEFINED;
+            }
+            return PyConditionValue.of(l.shiftLeft(r));
+        };
+        BINARY_OPERATIONS[Op.RSHIFT.ordinal()] = (run, node, l, r) -> {
+            if (r.compareTo(PyValue.ZERO) < 0) {
+                run.report(node, "Shifting by negative number (" + r + ")");
+                return PyConditionValue.UNDEFINED;
+            }
+            return PyConditionValue.of(l.shiftRight(r));
+        };
+        BINARY_OPERATIONS[Op.XOR.ordinal()] = (run, node, l, r) -> PyConditionValue.of(l.xor(r));
+        BINARY_OPERATIONS[Op.BIT_AND.ordinal()] = (run, node, l, r) -> PyConditionValue.of(l.and(r));
+        BINARY_OPERATIONS[Op.BIT_OR.ordinal()] = (run, node, l, r) -> PyConditionValue.of(l.or(r));
+    }
+
+    private final class Run {
+        private final PyConstantIr ir;
+        @Nullable private final SharedSubexpressions shared;
+        private final long deadline;
+        private final List<PyDiagnostic> diagnostics = new ArrayList<>(0);
+        private boolean outOfTime;
+        private int maxResultBitLength;
+        private int nodesEvaluated;
+
+        private Run(PyConstantIr ir, @Nullable SharedSubexpressions shared) {
+            this.ir = ir;
+            this.shared = shared;
+            this.deadline = System.nanoTime() + timeLimitNanos;
+        }
+
+        private void report(int node, String message) {
+            diagnostics.add(new PyDiagnostic(node, PyDiagnostic.Kind.ERROR, message));
+        }
+
+        /**
+         * Nodes are stored in post-order, so a single pass over the arrays evaluates operands before
+         * their parents without recursion. The depth of the expression is not limited by the stack.
+         * When the left operand of {@code and}/{@code or} or of a chained comparison decides the result,
+         * the pass jumps over the rest, as Python doesn't evaluate it either.
+         */
+        private PyConditionValue processAll() {
+            PyConditionValue[] values = new PyConditionValue[ir.size()];
+            for (int node = 0; node < values.length; node++) {
+                checkCanceled.run();
+                if (outOfTime) {
+                    values[node] = PyConditionValue.UNDEFINED;
+                    continue;
+                } else if (System.nanoTime() - deadline > 0) {
+                    outOfTime = true;
+                    diagnostics.add(new PyDiagnostic(node, PyDiagnostic.Kind.BUDGET, "Evaluation time limit exceeded"));
+                    values[node] = PyConditionValue.UNDEFINED;
+                    continue;
+                }
+                PyConditionValue value = null;
+                if (shared != null) {
+                    // Jump over the largest subtree evaluated before
+                    for (int root = shared.outermostAt(node); root >= 0 && value == null; root = shared.nextInner(root)) {
+                        SharedResult result = shared.get(root);
+                        if (result != null) {
+                            for (PyDiagnostic diagnostic : result.diagnostics) {
+                                diagnostics.add(new PyDiagnostic(node + diagnostic.node, diagnostic.kind,
+                                        diagnostic.message));
+                            }
+                            node = root;
+                            value = result.value;
+                        }
+                    }
+                }
+                if (value == null) {
+                    nodesEvaluated++;
+                    value = process(node, values);
+                    share(node, value);
+                }
+                int parent;
+                while ((parent = ir.shortCircuitParent(node)) >= 0) {
+                    PyConditionValue decided = shortCircuit(ir.op(parent), value);
+                    if (decided == null) {
+                        break;
+                    }
+                    node = parent;
+                    value = decided;
+                    share(node, value);
+                }
+                values[node] = value;
+            }
+            return values[ir.root()];
+        }
+
+        private void share(int root, PyConditionValue value) {
+            if (shared == null || outOfTime || !shared.isShareable(root)) {
+                return;
+            }
+            int start = ir.subtreeStart(root);
+            // Diagnostics are added in node order, those of the subtree are at the end
+            int from = diagnostics.size();
+            while (from > 0 && diagnostics.get(from - 1).node >= start) {
+                from--;
+            }
+            List<PyDiagnostic> relative = new ArrayList<>(diagnostics.size() - from);
+            for (PyDiagnostic diagnostic : diagnostics.subList(from, diagnostics.size())) {
+                relative.add(new PyDiagnostic(diagnostic.node - start, diagnostic.kind, diagnostic.message));
+            }
+            shared.put(root, new SharedResult(value, relative));
+        }
+
+        /**
+         * @return result of the parent decided by its left operand alone or null if the rest must be evaluated
+         */
+        private PyConditionValue shortCircuit(Op parentOp, PyConditionValue left) {
+            if (!left.isDetermined()) {
+                return null;
+            } else if (parentOp == Op.AND) {
+                return left.getBoolean() ? null : left;
+            } else if (parentOp == Op.OR) {
+                return left.getBoolean() ? left : null;
+            }
+            // Chained comparison
+            return left.getBoolean() ? null : PyConditionValue.FALSE;
+        }
+
+        private PyConditionValue process(int node, PyConditionValue[] values) {
+            Op op = ir.op(node);
+            if (op == Op.CONSTANT) {
+                return PyConditionValue.of(ir.constant(node));
+            } else if (op == Op.UNKNOWN) {
+                return PyConditionValue.UNDEFINED;
+            }
+            PyConditionValue left = values[ir.left(node)];
+            // Each node has a single parent, so operands are not needed any more
+            values[ir.left(node)] = null;
+            if (op.isUnary()) {
+                return processPrefExpr(node, op, left);
+            }
+            PyConditionValue right = values[ir.right(node)];
+            int parent = ir.shortCircuitParent(node);
+            // The right operand of a comparison continued by a chain is compared again by the parent
+            if (parent < 0 || !ir.isChained(parent)) {
+                values[ir.right(node)] = null;
+            }
+            if (ir.isChained(node)) {
+                int middle = ir.right(ir.left(node));
+                PyConditionValue middleValue = values[middle];
+                values[middle] = null;
+                return processChainedComparison(node, op, left, middleValue, right);
+            }
+            return processBinExpr(node, op, left, right);
+        }
+
+        /**
+         * {@code a < b < c}: {@code previous} is the value of {@code a < b}, which is not false at this point.
+         */
+        private PyConditionValue processChainedComparison(int node, Op op, PyConditionValue previous,
+                                                          PyConditionValue middle, PyConditionValue right) {
+            PyConditionValue last = processBinExpr(node, op, middle, right);
+            return previous.isDetermined() ? last : PyConditionValue.UNDEFINED;
+        }
+
+        private PyConditionValue processPrefExpr(int node, Op op, PyConditionValue operand) {
+
+            if (!operand.isDetermined()) {
+                return PyConditionValue.UNDEFINED;
+            }
+            if (op.isIntegerOnly() && !operand.getValue().isInteger()) {
+                report(node, "Unsupported operand type (" + operand.getValue().getTypeString() + ")");
+                return PyConditionValue.UNDEFINED;
+            } else if (op != Op.NOT && !operand.getValue().isNumber()) {
+                return PyConditionValue.UNDEFINED;
+            }
+            return UNARY_OPERATIONS[op.ordinal()].apply(operand);
+        }
+
+        private PyConditionValue processBinExpr(int node, Op op, PyConditionValue left, PyConditionValue right) {
+
+            if (op.isLogical()) {
+                // A left operand deciding the result was handled by the short circuit
+                return left.isDetermined() ? right : PyConditionValue.UNDEFINED;
+            }
+
+            if ((op == Op.IN || op == Op.NOT_IN) && right.isDetermined() && right.getValue().isTuple()
+                    && !right.getValue().isTrue()) {
+                // Nothing is in an empty tuple, whatever the item
+                return PyConditionValue.of(op == Op.NOT_IN);
+            }
+            if (!left.isDetermined() || !right.isDetermined()) {
+                return PyConditionValue.UNDEFINED;
+            }
+            PyValue l = left.getValue();
+            PyValue r = right.getValue();
+            if (op == Op.TUPLE_APPEND) {
+                return PyConditionValue.of(l.append(r));
+            } else if (op.isComparison() && (COMPARISONS[op.ordinal()] == null || !l.isNumber() || !r.isNumber())) {
+                return processObjectComparison(node, op, l, r);
+            } else if ((!l.isNumber() || !r.isNumber()) && op != Op.ADD) {
+                return PyConditionValue.UNDEFINED;
+            }
+
+            if (op.isIntegerOnly() && (!left.getValue().isInteger() || !right.getValue().isInteger())) {
+                report(node, "Unsupported operand types (" + left.getValue().getTypeString() + " and " +
+                        right.getValue().getTypeString() + ")");
+                return PyConditionValue.UNDEFINED;
+            }
+
+            if (op.isComparison()) {
+                int cmp = left.getValue().compareTo(right.getValue());
+                return PyConditionValue.of(COMPARISONS[op.ordinal()].test(cmp));
+            }
+            BinaryOperation operation = BINARY_OPERATIONS[op.ordinal()];
+            if (operation == null) {
+                return PyConditionValue.UNDEFINED;
+            }
+            PyConditionValue result = operation.apply(this, node, left.getValue(), right.getValue());
+            // Only arithmetic grows integers, so this is the one place to watch their size
+            maxResultBitLength = Math.max(maxResultBitLength, result.getValue().bitLength());
+            return result;
+        }
+
+        /**
+         * Comparisons of other values than two numbers, and {@code in} and {@code is}.
+         */
+        private PyConditionValue processObjectComparison(int node, Op op, PyValue l, PyValue r) {
+            PyValue result;
+            switch (op) {
+                case EQ:
+                case NE:
+                    result = l.equalsValue(r);
+                    break;
+                case IS:
+                case IS_NOT:
+                    result = l.identityValue(r);
+                    break;
+                case IN:
+                case NOT_IN:
+                    if (r.isNotContainer()) {
+                        report(node, "Unsupported right operand type for 'in' (" + r.getTypeString() + ")");
+                        return PyConditionValue.UNDEFINED;
+                    }
+                    result = r.containsValue(l);
+                    break;
+                default:
+                    PyValue order = l.order(r);
+                    if (!order.isDetermined()) {
+                        return PyConditionValue.UNDEFINED;
+                    }
+                    return PyConditionValue.of(COMPARISONS[op.ordinal()].test(order.signum()));
+            }
+            if (!result.isDetermined()) {
+                return PyConditionValue.UNDEFINED;
+            }
+            boolean negated = op == Op.NE || op == Op.IS_NOT || op == Op.NOT_IN;
+            return PyConditionValue.of(result.isTrue() != negated);
+        }
+
+        private boolean fitsBudget(int node, long estimatedBits) {
+            if (estimatedBits <= maxResultBits) {
+                return true;
+            }
+            diagnostics.add(new PyDiagnostic(node, PyDiagnostic.Kind.BUDGET,
+                    "Result is too large to evaluate (about " + estimatedBits + " bits)"));
+            return false;
+        }
+    }
+
+    static final class PyEvaluationResult {
+        private final PyConditionValue value;
+        private final List<PyDiagnostic> diagnostics;
+        private final boolean outOfTime;
+        private final int maxResultBitLength;
+        private final int nodesEvaluated;
+
+        private PyEvaluationResult(PyConditionValue value, List<PyDiagnostic> diagnostics, boolean outOfTime,
+                                   int maxResultBitLength, int nodesEvaluated) {
+            this.value = value;
+            this.diagnostics = diagnostics.isEmpty() ? Collections.<PyDiagnostic>emptyList()
+                                                     : Collections.unmodifiableList(diagnostics);
+            this.outOfTime = outOfTime;
+            this.maxResultBitLength = maxResultBitLength;
+            this.nodesEvaluated = nodesEvaluated;
+        }
+
+        @NotNull
+        PyConditionValue getValue() { return value; }
+
+        @NotNull
+        List<PyDiagnostic> getDiagnostics() { return diagnostics; }
+
+        /**
+         * Results cut short by the time limit depend on machine load and shouldn't be cached.
+         */
+        boolean isOutOfTime() { return outOfTime; }
+
+        /**
+         * @return bit length of the largest integer computed by an arithmetic operation
+         */
+        int getMaxResultBitLength() { return maxResultBitLength; }
+
+        /**
+         * @return number of nodes actually evaluated, without those skipped by short circuits or shared results
+         */
+        int getNodesEvaluated() { return nodesEvaluated; }
+    }
+
+    static final class PyDiagnostic {
+        enum Kind {
+            /** Python would raise at runtime. */
+            ERROR,
+            /** Evaluation gave up because of the size or time limit. */
+            BUDGET
+        }
+
+        private final int node;
+        private final Kind kind;
+        private final String message;
+
+        private PyDiagnostic(int node, Kind kind, String message) {
+            this.node = node;
+            this.kind = kind;
+            this.message = message;
+        }
+
+        /**
+         * @return index of the IR node the diagnostic belongs to
+         */
+        int getNode() { return node; }
+
+        @NotNull
+        Kind getKind() { return kind; }
+
+        @NotNull
+        String getMessage() { return message; }
+    }
+}
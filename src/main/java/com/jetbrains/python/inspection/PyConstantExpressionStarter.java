@@ -0,0 +1,331 @@
+package com.jetbrains.python.inspection;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ApplicationStarter;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiFileFactory;
+import com.jetbrains.python.PythonFileType;
+import com.jetbrains.python.inspection.PyConstantEvaluator.PyDiagnostic;
+import com.jetbrains.python.inspection.PyConstantEvaluator.PyEvaluationResult;
+import com.jetbrains.python.psi.PyExpression;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the constant condition analysis over a directory tree without opening a project:
+ * <pre>
+ * idea.sh py-constant-conditions &lt;dir&gt; [--output &lt;file&gt;] [--threads &lt;n&gt;]
+ * </pre>
+ * Problems are streamed as JSON lines to the output file or stdout while files are analyzed.
+ * Files are decoded with the encoding declared in their first two lines, UTF-8 without a declaration.
+ * Files and directories which can't be read or analyzed are reported to stderr and skipped.
+ * Throughput of every file, slowest first, and of the whole run go to stderr at the end.
+ * The exit code is 1 if any problem was found.
+ */
+public class PyConstantExpressionStarter implements ApplicationStarter {
+    private static final String COMMAND = "py-constant-conditions";
+    private static final Path END_OF_INPUT = Paths.get("");
+
+    private final AtomicLong fileCount = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+    private final AtomicLong conditionCount = new AtomicLong();
+    private final AtomicLong problemCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final List<FileTiming> timings = new ArrayList<>();
+
+    @Override
+    public String getCommandName() {
+        return COMMAND;
+    }
+
+    @Override
+    public void premain(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: " + COMMAND + " <dir> [--output <file>] [--threads <n>]");
+            System.exit(2);
+        }
+    }
+
+    @Override
+    public void main(String[] args) {
+        int exitCode;
+        try {
+            exitCode = run(args);
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            exitCode = 2;
+        }
+        System.exit(exitCode);
+    }
+
+    private int run(String[] args) throws Exception {
+        Path root = Paths.get(args[1]).toAbsolutePath().normalize();
+        String output = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            if ("--output".equals(args[i])) {
+                output = args[i + 1];
+            } else if ("--threads".equals(args[i])) {
+                threads = Math.max(1, Integer.parseInt(args[i + 1]));
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Project project = ProjectManager.getInstance().getDefaultProject();
+        PyConstantExpression settings = new PyConstantExpression();
+        PyConstantEvaluator evaluator = new PyConstantEvaluator(settings.maxResultBits,
+                TimeUnit.MILLISECONDS.toNanos(settings.timeLimitMillis), ProgressManager::checkCanceled);
+        // Bounded, so walking a huge tree doesn't run ahead of the workers
+        BlockingQueue<Path> queue = new ArrayBlockingQueue<>(threads * 64);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        long start = System.nanoTime();
+        try (Writer writer = output == null
+                             ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                             : Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8)) {
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Thread worker = new Thread(() -> {
+                    try {
+                        Path path;
+                        while ((path = queue.take()) != END_OF_INPUT) {
+                            // After a fatal error the queue is still drained, so the walk never blocks on it
+                            if (failure.get() != null) {
+                                continue;
+                            }
+                            try {
+                                analyzeFile(project, evaluator, root, path, writer);
+                            }
+                            catch (Exception e) {
+                                failedCount.incrementAndGet();
+                                System.err.println("Cannot analyze " + root.relativize(path) + ": " + e);
+                            }
+                            catch (Throwable t) {
+                                failure.compareAndSet(null, t);
+                            }
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }, COMMAND + "-" + i);
+                worker.start();
+                workers.add(worker);
+            }
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+                        if (attributes.isRegularFile() && path.toString().endsWith(".py")) {
+                            try {
+                                queue.put(path);
+                            }
+                            catch (InterruptedException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path path, IOException e) {
+                        failedCount.incrementAndGet();
+                        System.err.println("Cannot read " + root.relativize(path) + ": " + e);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+            finally {
+                for (int i = 0; i < threads; i++) {
+                    queue.put(END_OF_INPUT);
+                }
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+            }
+        }
+        if (failure.get() != null) {
+            throw new RuntimeException(failure.get());
+        }
+        printStatistics(System.nanoTime() - start, threads);
+        return problemCount.get() > 0 ? 1 : 0;
+    }
+
+    private void analyzeFile(@NotNull Project project, @NotNull PyConstantEvaluator evaluator, @NotNull Path root,
+                             @NotNull Path path, @NotNull Writer writer) throws IOException {
+        long start = System.nanoTime();
+        byte[] bytes = Files.readAllBytes(path);
+        String text = new String(bytes, charset(bytes));
+        String relativePath = root.relativize(path).toString().replace(File.separatorChar, '/');
+
+        StringBuilder lines = new StringBuilder();
+        int[] lineStarts = lineStarts(text);
+        int conditions = ApplicationManager.getApplication().runReadAction((Computable<Integer>) () -> {
+            PsiFile file = PsiFileFactory.getInstance(project)
+                    .createFileFromText(path.getFileName().toString(), PythonFileType.INSTANCE, text);
+            List<PyExpression> found = PyConstantFileAnalysis.collectConditions(file);
+            PyConstantFileAnalysis.evaluate(found, evaluator,
+                    evaluated -> reportCondition(evaluated, relativePath, lineStarts, lines));
+            return found.size();
+        });
+        if (lines.length() > 0) {
+            // One write per file keeps the lines of a file together
+            synchronized (writer) {
+                writer.write(lines.toString());
+                writer.flush();
+            }
+        }
+
+        fileCount.incrementAndGet();
+        byteCount.addAndGet(bytes.length);
+        conditionCount.addAndGet(conditions);
+        synchronized (timings) {
+            timings.add(new FileTiming(relativePath, bytes.length, System.nanoTime() - start));
+        }
+    }
+
+    private void reportCondition(@NotNull PyConstantFileAnalysis.Evaluated evaluated, @NotNull String path,
+                                 @NotNull int[] lineStarts, @NotNull StringBuilder lines) {
+        PyEvaluationResult result = evaluated.getResult();
+        for (PyDiagnostic diagnostic : result.getDiagnostics()) {
+            if (diagnostic.getKind() == PyDiagnostic.Kind.ERROR) {
+                appendProblem(lines, path, lineStarts, evaluated.getLowered().getElement(diagnostic.getNode()),
+                        diagnostic.getMessage());
+            }
+        }
+        if (result.getValue().isDetermined()) {
+            appendProblem(lines, path, lineStarts, evaluated.getCondition(),
+                    PyConstantExpression.conditionMessage(result.getValue().getBoolean()));
+        }
+    }
+
+    private void appendProblem(@NotNull StringBuilder lines, @NotNull String path, @NotNull int[] lineStarts,
+                               @NotNull PsiElement element, @NotNull String message) {
+        problemCount.incrementAndGet();
+        int offset = element.getTextRange().getStartOffset();
+        int line = lineOf(lineStarts, offset);
+        lines.append("{\"file\":\"").append(escape(path))
+             .append("\",\"line\":").append(line + 1)
+             .append(",\"column\":").append(offset - lineStarts[line] + 1)
+             .append(",\"message\":\"").append(escape(message))
+             .append("\"}\n");
+    }
+
+    /**
+     * The declaration is ASCII in the first two lines, so it can be found before the encoding is known.
+     */
+    @NotNull
+    private static Charset charset(@NotNull byte[] bytes) {
+        int end = 0;
+        for (int lines = 0; end < bytes.length && lines < 2; end++) {
+            if (bytes[end] == '\n') {
+                lines++;
+            }
+        }
+        String declared = PythonFileType.getCharsetFromEncodingDeclaration(
+                new String(bytes, 0, end, StandardCharsets.ISO_8859_1));
+        return declared == null ? StandardCharsets.UTF_8 : Charset.forName(declared);
+    }
+
+    @NotNull
+    private static int[] lineStarts(@NotNull String text) {
+        int count = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                count++;
+            }
+        }
+        int[] starts = new int[count];
+        int line = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                starts[line++] = i + 1;
+            }
+        }
+        return starts;
+    }
+
+    private static int lineOf(@NotNull int[] lineStarts, int offset) {
+        int low = 0;
+        int high = lineStarts.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (lineStarts[middle] <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    @NotNull
+    private static String escape(@NotNull String s) {
+        StringBuilder result = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < 0x20) {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private void printStatistics(long elapsedNanos, int threads) {
+        double seconds = elapsedNanos / 1e9;
+        PrintStream err = System.err;
+        timings.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+        err.println("Files, slowest first:");
+        for (FileTiming timing : timings) {
+            err.println(String.format(Locale.ROOT, "  %8.1f ms  %8.1f KB/s  %s", timing.nanos / 1e6,
+                    timing.bytes / 1024.0 / Math.max(timing.nanos / 1e9, 1e-9), timing.path));
+        }
+        err.println(String.format(Locale.ROOT,
+                "%d files, %.1f MB, %d conditions, %d problems in %.2f s on %d threads: %.1f files/s, %.2f MB/s",
+                fileCount.get(), byteCount.get() / 1048576.0, conditionCount.get(), problemCount.get(), seconds,
+                threads, fileCount.get() / seconds, byteCount.get() / 1048576.0 / seconds));
+        if (failedCount.get() > 0) {
+            err.println(failedCount.get() + " files or directories could not be read or analyzed");
+        }
+    }
+
+    private static class FileTiming {
+        private final String path;
+        private final long bytes;
+        private final long nanos;
+
+        private FileTiming(String path, long bytes, long nanos) {
+            this.path = path;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.jetbrains.python.inspection;
+
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.python.inspection.PyConstantEvaluator.SharedResult;
+import com.jetbrains.python.inspection.PyConstantEvaluator.PyEvaluationResult;
+import com.jetbrains.python.inspection.PyConstantIr.Op;
+import com.jetbrains.python.psi.PyExpression;
+import com.jetbrains.python.psi.PyIfPart;
+import com.jetbrains.python.psi.PyIfStatement;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Evaluates all conditions of a file together. Structurally identical subexpressions are hash-consed
+ * into a single id, and each one occurring more than once is evaluated only for its first occurrence;
+ * other occurrences reuse the value and the diagnostics.
+ */
+final class PyConstantFileAnalysis {
+
+    /**
+     * A condition with its IR and result.
+     */
+    static final class Evaluated {
+        private final PyExpression condition;
+        private final PyConstantLowering.Lowered lowered;
+        private final PyEvaluationResult result;
+        private final long nanos;
+
+        private Evaluated(PyExpression condition, PyConstantLowering.Lowered lowered, PyEvaluationResult result,
+                          long nanos) {
+            this.condition = condition;
+            this.lowered = lowered;
+            this.result = result;
+            this.nanos = nanos;
+        }
+
+        @NotNull
+        PyExpression getCondition() { return condition; }
+
+        @NotNull
+        PyConstantLowering.Lowered getLowered() { return lowered; }
+
+        @NotNull
+        PyEvaluationResult getResult() { return result; }
+
+        /**
+         * @return time of lowering and evaluation of this condition
+         */
+        long getNanos() { return nanos; }
+    }
+
+    /**
+     * Structure of a node: its operation and the ids of its operands, or the value of a constant.
+     */
+    private static final class Key {
+        private final Op op;
+        private final boolean chained;
+        private final int left;
+        private final int right;
+        @Nullable private final Object constant;
+
+        private Key(Op op, boolean chained, int left, int right, @Nullable Object constant) {
+            this.op = op;
+            this.chained = chained;
+            this.left = left;
+            this.right = right;
+            this.constant = constant;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return op == key.op && chained == key.chained && left == key.left && right == key.right
+                    && Objects.equals(constant, key.constant);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((op.ordinal() * 31 + left) * 31 + right) * 2 + (chained ? 1 : 0) + Objects.hashCode(constant);
+        }
+    }
+
+    private final Map<Key, Integer> ids = new HashMap<>();
+    private int[] occurrences = new int[64];
+    private final Map<Integer, SharedResult> results = new HashMap<>();
+
+    private PyConstantFileAnalysis() {
+    }
+
+    /**
+     * @return conditions of all {@code if} and {@code elif} parts in the element, in text order
+     */
+    @NotNull
+    static List<PyExpression> collectConditions(@NotNull PsiElement element) {
+        List<PyExpression> conditions = new ArrayList<>();
+        for (PyIfStatement statement : PsiTreeUtil.findChildrenOfType(element, PyIfStatement.class)) {
+            addCondition(conditions, statement.getIfPart());
+            for (PyIfPart part : statement.getElifParts()) {
+                addCondition(conditions, part);
+            }
+        }
+        return conditions;
+    }
+
+    private static void addCondition(@NotNull List<PyExpression> conditions, @NotNull PyIfPart part) {
+        PyExpression condition = part.getCondition();
+        if (condition != null) {
+            conditions.add(condition);
+        }
+    }
+
+    /**
+     * Lowers and evaluates the conditions, sharing the results of their common subexpressions.
+     * Each condition is passed to the consumer as soon as it is evaluated, so the results already passed
+     * are kept if evaluation is canceled.
+     */
+    static void evaluate(@NotNull List<PyExpression> conditions, @NotNull PyConstantEvaluator evaluator,
+                         @NotNull Consumer<Evaluated> consumer) {
+        PyConstantFileAnalysis analysis = new PyConstantFileAnalysis();
+        List<PyConstantLowering.Lowered> lowered = new ArrayList<>(conditions.size());
+        List<int[]> nodeIds = new ArrayList<>(conditions.size());
+        long[] nanos = new long[conditions.size()];
+        // All conditions are interned first, to know which subexpressions occur more than once
+        for (int i = 0; i < conditions.size(); i++) {
+            long start = System.nanoTime();
+            PyConstantLowering.Lowered condition = PyConstantLowering.lowerInFile(conditions.get(i));
+            lowered.add(condition);
+            nodeIds.add(analysis.intern(condition.getIr()));
+            nanos[i] = System.nanoTime() - start;
+        }
+        for (int i = 0; i < conditions.size(); i++) {
+            long start = System.nanoTime();
+            PyConstantIr ir = lowered.get(i).getIr();
+            PyEvaluationResult result = evaluator.evaluate(ir, analysis.new Shared(ir, nodeIds.get(i)));
+            consumer.accept(new Evaluated(conditions.get(i), lowered.get(i), result, nanos[i] + System.nanoTime() - start));
+        }
+    }
+
+    @NotNull
+    private int[] intern(@NotNull PyConstantIr ir) {
+        int[] nodeIds = new int[ir.size()];
+        for (int node = 0; node < nodeIds.length; node++) {
+            Op op = ir.op(node);
+            Key key;
+            if (op == Op.CONSTANT) {
+                // So that 1 and 1.0 are different
+                key = new Key(op, false, -1, -1, ir.constant(node).constantKey());
+            } else {
+                int left = ir.left(node);
+                int right = ir.right(node);
+                key = new Key(op, ir.isChained(node), left < 0 ? -1 : nodeIds[left], right < 0 ? -1 : nodeIds[right],
+                        null);
+            }
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = ids.size();
+                ids.put(key, id);
+                if (id == occurrences.length) {
+                    occurrences = Arrays.copyOf(occurrences, id * 2);
+                }
+            }
+            occurrences[id]++;
+            nodeIds[node] = id;
+        }
+        return nodeIds;
+    }
+
+    /**
+     * Shareable subtrees of one IR: those occurring more than once in the file, except leaves, which are
+     * cheaper to evaluate than to look up, and the first comparison of a chain, whose right operand
+     * the chain needs again.
+     */
+    private final class Shared implements PyConstantEvaluator.SharedSubexpressions {
+        private final int[] nodeIds;
+        private final int[] outermost;
+        private final int[] nextInner;
+        private final boolean[] shareable;
+
+        private Shared(@NotNull PyConstantIr ir, @NotNull int[] nodeIds) {
+            this.nodeIds = nodeIds;
+            outermost = new int[ir.size()];
+            nextInner = new int[ir.size()];
+            shareable = new boolean[ir.size()];
+            Arrays.fill(outermost, -1);
+            Arrays.fill(nextInner, -1);
+            for (int node = 0; node < nodeIds.length; node++) {
+                int start = ir.subtreeStart(node);
+                int parent = ir.shortCircuitParent(node);
+                if (start == node || occurrences[nodeIds[node]] < 2 || parent >= 0 && ir.isChained(parent)) {
+                    continue;
+                }
+                shareable[node] = true;
+                // Subtrees starting at the same node enclose each other, the enclosing one comes later
+                nextInner[node] = outermost[start];
+                outermost[start] = node;
+            }
+        }
+
+        @Override
+        public int outermostAt(int start) { return outermost[start]; }
+
+        @Override
+        public int nextInner(int root) { return nextInner[root]; }
+
+        @Override
+        public boolean isShareable(int node) { return shareable[node]; }
+
+        @Nullable
+        @Override
+        public SharedResult get(int root) { return results.get(nodeIds[root]); }
+
+        @Override
+        public void put(int root, @NotNull SharedResult result) { results.put(nodeIds[root], result); }
+    }
+}
@@ -0,0 +1,184 @@
+package com.jetbrains.python.inspection;
+
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.QualifiedName;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import com.jetbrains.python.PythonFileType;
+import com.jetbrains.python.psi.PyFile;
+import com.jetbrains.python.psi.PyFromImportStatement;
+import com.jetbrains.python.psi.PyImportElement;
+import com.jetbrains.python.psi.PyStatement;
+import com.jetbrains.python.psi.resolve.QualifiedNameFinder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Module-level constants of Python files, see {@link PyConstantSymbolTable#moduleConstants}, by {@code module.name}.
+ * Only the file itself is read for indexing, so the index is updated together with the file. Hence the module is
+ * the file name rather than the qualified name, which depends on the roots; the rest is checked on lookup.
+ */
+public class PyConstantIndex extends FileBasedIndexExtension<String, PyValue> {
+    static final ID<String, PyValue> NAME = ID.create("py.constant.module.constants");
+
+    private static final DataExternalizer<PyValue> VALUE_EXTERNALIZER = new DataExternalizer<PyValue>() {
+        @Override
+        public void save(@NotNull DataOutput out, PyValue value) throws IOException {
+            value.write(out);
+        }
+
+        @Override
+        public PyValue read(@NotNull DataInput in) throws IOException {
+            return PyValue.read(in);
+        }
+    };
+
+    @NotNull
+    @Override
+    public ID<String, PyValue> getName() {
+        return NAME;
+    }
+
+    @NotNull
+    @Override
+    public DataIndexer<String, PyValue, FileContent> getIndexer() {
+        return inputData -> {
+            PsiFile file = inputData.getPsiFile();
+            if (!(file instanceof PyFile)) {
+                return Collections.emptyMap();
+            }
+            String module = moduleName(inputData.getFile());
+            Map<String, PyValue> constants = new HashMap<>();
+            for (Map.Entry<String, PyValue> entry : PyConstantSymbolTable.moduleConstants((PyFile) file).entrySet()) {
+                constants.put(key(module, entry.getKey()), entry.getValue());
+            }
+            return constants;
+        };
+    }
+
+    @NotNull
+    @Override
+    public KeyDescriptor<String> getKeyDescriptor() {
+        return EnumeratorStringDescriptor.INSTANCE;
+    }
+
+    @NotNull
+    @Override
+    public DataExternalizer<PyValue> getValueExternalizer() {
+        return VALUE_EXTERNALIZER;
+    }
+
+    @Override
+    public int getVersion() {
+        return 2;
+    }
+
+    @NotNull
+    @Override
+    public FileBasedIndex.InputFilter getInputFilter() {
+        return new DefaultFileTypeSpecificInputFilter(PythonFileType.INSTANCE);
+    }
+
+    @Override
+    public boolean dependsOnFileContent() {
+        return true;
+    }
+
+    /**
+     * Looks the name imported by {@code from module import name} up in the index. Only files with the name
+     * of the module defining a constant of that name are found, and checked to be that module.
+     *
+     * @return value of the imported name or null if it is not a known constant, or the index is not ready
+     */
+    @Nullable
+    static PyValue resolveImport(@NotNull PyImportElement element) {
+        PyStatement statement = element.getContainingImportStatement();
+        QualifiedName importedName = element.getImportedQName();
+        if (!(statement instanceof PyFromImportStatement) || importedName == null
+                || importedName.getComponentCount() != 1) {
+            return null;
+        }
+        PyFromImportStatement fromImport = (PyFromImportStatement) statement;
+        QualifiedName source = fromImport.getImportSourceQName();
+        VirtualFile importingFile = element.getContainingFile().getOriginalFile().getVirtualFile();
+        Project project = element.getProject();
+        if (source == null || source.getComponentCount() == 0 || importingFile == null || project.isDefault()
+                || DumbService.isDumb(project)) {
+            return null;
+        }
+        PyValue[] found = {null};
+        String key = key(source.getLastComponent(), importedName.getLastComponent());
+        FileBasedIndex.getInstance().processValues(NAME, key, null, (file, value) -> {
+            if (!isModule(file, source, fromImport.getRelativeLevel(), importingFile, element)) {
+                return true;
+            } else if (found[0] != null && !found[0].equals(value)) {
+                // The same module in several roots with different values
+                found[0] = PyValue.UNDEFINED;
+                return false;
+            }
+            found[0] = value;
+            return true;
+        }, GlobalSearchScope.allScope(project));
+        return found[0] == null || !found[0].isDetermined() ? null : found[0];
+    }
+
+    @NotNull
+    private static String key(@NotNull String module, @NotNull String name) {
+        return module + "." + name;
+    }
+
+    /**
+     * @return name of the module of the file, without its package
+     */
+    @NotNull
+    private static String moduleName(@NotNull VirtualFile file) {
+        VirtualFile parent = file.getParent();
+        return isPackage(file) && parent != null ? parent.getName() : file.getNameWithoutExtension();
+    }
+
+    private static boolean isPackage(@NotNull VirtualFile file) {
+        return "__init__".equals(file.getNameWithoutExtension());
+    }
+
+    /**
+     * @param file file with the name of the module, by the index key
+     */
+    private static boolean isModule(@NotNull VirtualFile file, @NotNull QualifiedName module, int relativeLevel,
+                                    @NotNull VirtualFile importingFile, @NotNull PyImportElement foothold) {
+        VirtualFile moduleFile = isPackage(file) ? file.getParent() : file;
+        if (moduleFile == null) {
+            return false;
+        }
+        if (relativeLevel == 0) {
+            return module.equals(QualifiedNameFinder.findShortestImportableQName(foothold, file));
+        }
+        VirtualFile directory = importingFile.getParent();
+        for (int i = 1; i < relativeLevel && directory != null; i++) {
+            directory = directory.getParent();
+        }
+        // Walk up from the module to the directory the relative import starts in
+        List<String> components = module.getComponents();
+        VirtualFile parent = moduleFile.getParent();
+        for (int i = components.size() - 2; i >= 0 && parent != null; i--) {
+            if (!components.get(i).equals(parent.getName())) {
+                return false;
+            }
+            parent = parent.getParent();
+        }
+        return directory != null && directory.equals(parent);
+    }
+}
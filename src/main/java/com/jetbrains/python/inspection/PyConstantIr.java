@@ -0,0 +1,213 @@
+package com.jetbrains.python.inspection;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable lowered form of a constant expression, independent of PSI.
+ * Nodes are stored in post-order in parallel arrays: children always precede their parent
+ * and the root is the last node. Constants are interned into a separate table.
+ * <p>
+ * The right operand of {@code and}/{@code or} and the rest of a chained comparison are evaluated only
+ * if the left part doesn't decide the result. Their subtrees directly precede the parent, so the
+ * evaluator skips them by jumping from the left operand to the parent, see {@link #shortCircuitParent}.
+ */
+final class PyConstantIr {
+    private static final int UNARY = 1;
+    private static final int COMPARISON = 1 << 1;
+    private static final int LOGICAL = 1 << 2;
+    private static final int INTEGER_ONLY = 1 << 3;
+
+    enum Op {
+        CONSTANT(0),
+        UNKNOWN(0),
+        POS(UNARY),
+        NEG(UNARY),
+        NOT(UNARY),
+        INVERT(UNARY | INTEGER_ONLY),
+        ADD(0),
+        SUB(0),
+        MUL(0),
+        DIV(0),
+        FLOORDIV(0),
+        MOD(0),
+        POW(0),
+        LSHIFT(INTEGER_ONLY),
+        RSHIFT(INTEGER_ONLY),
+        XOR(INTEGER_ONLY),
+        BIT_AND(INTEGER_ONLY),
+        BIT_OR(INTEGER_ONLY),
+        LT(COMPARISON),
+        LE(COMPARISON),
+        GT(COMPARISON),
+        GE(COMPARISON),
+        EQ(COMPARISON),
+        NE(COMPARISON),
+        IN(COMPARISON),
+        NOT_IN(COMPARISON),
+        IS(COMPARISON),
+        IS_NOT(COMPARISON),
+        AND(LOGICAL),
+        OR(LOGICAL),
+        /** Tuple displays are built from the empty tuple by appending their items one at a time */
+        TUPLE_APPEND(0);
+
+        private final int flags;
+
+        Op(int flags) {
+            this.flags = flags;
+        }
+
+        boolean isUnary() { return (flags & UNARY) != 0; }
+        boolean isComparison() { return (flags & COMPARISON) != 0; }
+        /**
+         * @return true for {@code and} and {@code or}, which return one of their operands
+         */
+        boolean isLogical() { return (flags & LOGICAL) != 0; }
+        /**
+         * @return true if the operation is only defined for integers
+         */
+        boolean isIntegerOnly() { return (flags & INTEGER_ONLY) != 0; }
+    }
+
+    private final Op[] ops;
+    private final int[] first;
+    private final int[] second;
+    private final int[] shortCircuitParents;
+    private final int[] subtreeStarts;
+    private final PyValue[] constants;
+
+    private PyConstantIr(Op[] ops, int[] first, int[] second, int[] shortCircuitParents, int[] subtreeStarts,
+                         PyValue[] constants) {
+        this.ops = ops;
+        this.first = first;
+        this.second = second;
+        this.shortCircuitParents = shortCircuitParents;
+        this.subtreeStarts = subtreeStarts;
+        this.constants = constants;
+    }
+
+    int size() { return ops.length; }
+
+    int root() { return ops.length - 1; }
+
+    Op op(int node) { return ops[node]; }
+
+    /**
+     * @return operand of a unary node, left operand of a binary node or -1
+     */
+    int left(int node) { return first[node]; }
+
+    /**
+     * @return right operand of a binary node or -1
+     */
+    int right(int node) { return second[node]; }
+
+    /**
+     * @return the {@code and}/{@code or} node or chained comparison whose left operand is this node, otherwise -1.
+     * If the value of this node decides the result of the parent, the nodes between them are not evaluated.
+     */
+    int shortCircuitParent(int node) { return shortCircuitParents[node]; }
+
+    /**
+     * A chained comparison {@code a < b < c} is stored as a comparison of {@code b} and {@code c} whose left
+     * operand is the comparison {@code a < b}: it is true if both are, and {@code b} is only evaluated once.
+     */
+    boolean isChained(int node) {
+        return ops[node].isComparison() && shortCircuitParents[first[node]] == node;
+    }
+
+    /**
+     * @return first node of the subtree of this node, the subtree occupies all nodes from there to this one
+     */
+    int subtreeStart(int node) { return subtreeStarts[node]; }
+
+    PyValue constant(int node) { return constants[first[node]]; }
+
+    int constantCount() { return constants.length; }
+
+    static class Builder {
+        private Op[] ops = new Op[16];
+        private int[] first = new int[16];
+        private int[] second = new int[16];
+        private int[] shortCircuitParents = new int[16];
+        private int[] subtreeStarts = new int[16];
+        private int size;
+        private final Map<Object, Integer> constantIndex = new HashMap<>();
+        private PyValue[] constants = new PyValue[4];
+        private int constantCount;
+
+        int constant(PyValue value) {
+            // Keyed so that 1 and 1.0 are different constants
+            Integer index = constantIndex.get(value.constantKey());
+            if (index == null) {
+                if (constantCount == constants.length) {
+                    constants = Arrays.copyOf(constants, constantCount * 2);
+                }
+                index = constantCount;
+                constants[constantCount++] = value;
+                constantIndex.put(value.constantKey(), index);
+            }
+            return add(Op.CONSTANT, index, -1);
+        }
+
+        int unknown() {
+            return add(Op.UNKNOWN, -1, -1);
+        }
+
+        /**
+         * Unsupported operation. Its operands are still evaluated for their diagnostics,
+         * {@code right} is -1 for unary operations.
+         */
+        int unknown(int left, int right) {
+            return add(Op.UNKNOWN, left, right);
+        }
+
+        int unary(Op op, int operand) {
+            return add(op, operand, -1);
+        }
+
+        int binary(Op op, int left, int right) {
+            if (op.isLogical()) {
+                shortCircuitParents[left] = size;
+            }
+            return add(op, left, right);
+        }
+
+        /**
+         * Continues the comparison chain ending with {@code previous}, see {@link PyConstantIr#isChained}.
+         */
+        int chainedComparison(Op op, int previous, int right) {
+            if (!op.isComparison() || !ops[previous].isComparison()) {
+                throw new IllegalArgumentException("Only comparisons can be chained");
+            }
+            shortCircuitParents[previous] = size;
+            return add(op, previous, right);
+        }
+
+        int size() { return size; }
+
+        private int add(Op op, int a, int b) {
+            if (size == ops.length) {
+                ops = Arrays.copyOf(ops, size * 2);
+                first = Arrays.copyOf(first, size * 2);
+                second = Arrays.copyOf(second, size * 2);
+                shortCircuitParents = Arrays.copyOf(shortCircuitParents, size * 2);
+                subtreeStarts = Arrays.copyOf(subtreeStarts, size * 2);
+            }
+            ops[size] = op;
+            first[size] = a;
+            second[size] = b;
+            shortCircuitParents[size] = -1;
+            subtreeStarts[size] = op == Op.CONSTANT || a < 0 ? size : subtreeStarts[a];
+            return size++;
+        }
+
+        PyConstantIr build() {
+            return new PyConstantIr(Arrays.copyOf(ops, size), Arrays.copyOf(first, size),
+                    Arrays.copyOf(second, size), Arrays.copyOf(shortCircuitParents, size),
+                    Arrays.copyOf(subtreeStarts, size), Arrays.copyOf(constants, constantCount));
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.jetbrains.python.inspection;
+
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.jetbrains.python.PyTokenTypes;
+import com.jetbrains.python.inspection.PyConstantIr.Op;
+import com.jetbrains.python.psi.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Builds {@link PyConstantIr} from PSI. This is the only part of the evaluation that reads PSI,
+ * so it must run in a read action.
+ */
+final class PyConstantLowering {
+
+    interface NameResolver {
+        /**
+         * @return constant value of the name or null if it is unknown
+         */
+        @Nullable
+        PyValue resolve(@NotNull PyReferenceExpression reference);
+    }
+
+    /**
+     * IR together with the PSI element each node was built from, to map diagnostics back to the source.
+     */
+    static final class Lowered {
+        private final PyConstantIr ir;
+        private final PsiElement[] elements;
+        private final int depth;
+        private final boolean usesNames;
+        private final boolean usesOtherFiles;
+
+        private Lowered(PyConstantIr ir, PsiElement[] elements, int depth, boolean usesNames,
+                        boolean usesOtherFiles) {
+            this.ir = ir;
+            this.elements = elements;
+            this.depth = depth;
+            this.usesNames = usesNames;
+            this.usesOtherFiles = usesOtherFiles;
+        }
+
+        /**
+         * @return nesting depth of the expression, 1 for a single operand
+         */
+        int getDepth() { return depth; }
+
+        /**
+         * @return true if the expression refers to names, so its value depends on more than its own text
+         */
+        boolean usesNames() { return usesNames; }
+
+        /**
+         * @return true if names were resolved in a file which imports constants, so the value may change
+         * with other files
+         */
+        boolean usesOtherFiles() { return usesOtherFiles; }
+
+        @NotNull
+        PyConstantIr getIr() { return ir; }
+
+        @NotNull
+        PsiElement getElement(int node) { return elements[node]; }
+    }
+
+    /**
+     * Element types are singletons, so lookups go by identity.
+     */
+    private static final Map<PyElementType, Op> PREFIX_OPS = new IdentityHashMap<>();
+    private static final Map<PyElementType, Op> BINARY_OPS = new IdentityHashMap<>();
+
+    static {
+        PREFIX_OPS.put(PyTokenTypes.PLUS, Op.POS);
+        PREFIX_OPS.put(PyTokenTypes.MINUS, Op.NEG);
+        PREFIX_OPS.put(PyTokenTypes.NOT_KEYWORD, Op.NOT);
+        PREFIX_OPS.put(PyTokenTypes.TILDE, Op.INVERT);
+
+        BINARY_OPS.put(PyTokenTypes.AND_KEYWORD, Op.AND);
+        BINARY_OPS.put(PyTokenTypes.OR_KEYWORD, Op.OR);
+        BINARY_OPS.put(PyTokenTypes.LT, Op.LT);
+        BINARY_OPS.put(PyTokenTypes.LE, Op.LE);
+        BINARY_OPS.put(PyTokenTypes.GT, Op.GT);
+        BINARY_OPS.put(PyTokenTypes.GE, Op.GE);
+        BINARY_OPS.put(PyTokenTypes.EQEQ, Op.EQ);
+        BINARY_OPS.put(PyTokenTypes.NE, Op.NE);
+        BINARY_OPS.put(PyTokenTypes.NE_OLD, Op.NE);
+        BINARY_OPS.put(PyTokenTypes.IN_KEYWORD, Op.IN);
+        BINARY_OPS.put(PyTokenTypes.IS_KEYWORD, Op.IS);
+        BINARY_OPS.put(PyTokenTypes.PLUS, Op.ADD);
+        BINARY_OPS.put(PyTokenTypes.MINUS, Op.SUB);
+        BINARY_OPS.put(PyTokenTypes.MULT, Op.MUL);
+        BINARY_OPS.put(PyTokenTypes.DIV, Op.DIV);
+        BINARY_OPS.put(PyTokenTypes.EXP, Op.POW);
+        BINARY_OPS.put(PyTokenTypes.FLOORDIV, Op.FLOORDIV);
+        BINARY_OPS.put(PyTokenTypes.PERC, Op.MOD);
+        BINARY_OPS.put(PyTokenTypes.LTLT, Op.LSHIFT);
+        BINARY_OPS.put(PyTokenTypes.GTGT, Op.RSHIFT);
+        BINARY_OPS.put(PyTokenTypes.XOR, Op.XOR);
+        BINARY_OPS.put(PyTokenTypes.AND, Op.BIT_AND);
+        BINARY_OPS.put(PyTokenTypes.OR, Op.BIT_OR);
+    }
+
+    private enum Step { LOWER, EMIT, MISSING }
+
+    private final PyConstantIr.Builder builder = new PyConstantIr.Builder();
+    private final List<PsiElement> elements = new ArrayList<>();
+    @Nullable private final NameResolver resolver;
+    private boolean usesNames;
+
+    /**
+     * Expressions still to lower. An operation is pushed twice: once to schedule its operands
+     * and once more to emit it after them. A missing operand is pushed as its parent,
+     * marked as missing, so the unknown value it lowers to still points at an element.
+     */
+    private final List<PyExpression> pending = new ArrayList<>();
+    private final List<Step> steps = new ArrayList<>();
+    /**
+     * IR nodes of lowered operands which are not yet consumed by their parent, with their depths.
+     */
+    private int[] operands = new int[16];
+    private int[] operandDepths = new int[16];
+    private int operandCount;
+    /**
+     * Largest depth of the operands consumed by the node about to be pushed.
+     */
+    private int consumedDepth;
+    private int maxDepth;
+
+    private PyConstantLowering(@Nullable NameResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    @NotNull
+    static Lowered lower(@NotNull PyExpression expression) {
+        return lower(expression, null);
+    }
+
+    /**
+     * Lowers the expression with names resolved through the {@link PyConstantSymbolTable} of its file.
+     */
+    @NotNull
+    static Lowered lowerInFile(@NotNull PyExpression expression) {
+        final PsiFile file = expression.getContainingFile();
+        if (!(file instanceof PyFile)) {
+            return lower(expression, null);
+        }
+        // The table is only built once a name is actually met
+        Lowered lowered = lower(expression, reference -> PyConstantSymbolTable.getInstance((PyFile) file).resolve(reference));
+        if (lowered.usesNames && PyConstantSymbolTable.getInstance((PyFile) file).usesOtherFiles()) {
+            return new Lowered(lowered.ir, lowered.elements, lowered.depth, true, true);
+        }
+        return lowered;
+    }
+
+    @NotNull
+    static Lowered lower(@NotNull PyExpression expression, @Nullable NameResolver resolver) {
+        PyConstantLowering lowering = new PyConstantLowering(resolver);
+        lowering.process(expression);
+        return new Lowered(lowering.builder.build(), lowering.elements.toArray(PsiElement.EMPTY_ARRAY),
+                lowering.maxDepth, lowering.usesNames, false);
+    }
+
+    /**
+     * Post-order walk with an explicit stack, generated code can nest far deeper than the thread stack allows.
+     */
+    private void process(@NotNull PyExpression root) {
+        push(root, Step.LOWER);
+        while (!pending.isEmpty()) {
+            int last = pending.size() - 1;
+            PyExpression pyExpr = pending.remove(last);
+            Step step = steps.remove(last);
+            if (step == Step.MISSING) {
+                pushOperand(add(builder.unknown(), pyExpr));
+                continue;
+            }
+            boolean operandsDone = step == Step.EMIT;
+            while (pyExpr instanceof PyParenthesizedExpression
+                    && ((PyParenthesizedExpression) pyExpr).getContainedExpression() != null) {
+                pyExpr = ((PyParenthesizedExpression) pyExpr).getContainedExpression();
+            }
+
+            if (pyExpr instanceof PyBoolLiteralExpression) {
+                pushOperand(add(builder.constant(PyValue.of(((PyBoolLiteralExpression) pyExpr).getValue())), pyExpr));
+            } else if (pyExpr instanceof PyNumericLiteralExpression) {
+                pushOperand(add(builder.constant(numericValue((PyNumericLiteralExpression) pyExpr)), pyExpr));
+            } else if (pyExpr instanceof PyNoneLiteralExpression) {
+                pushOperand(add(builder.constant(PyValue.NONE), pyExpr));
+            } else if (pyExpr instanceof PyStringLiteralExpression) {
+                PyValue value = stringValue((PyStringLiteralExpression) pyExpr);
+                pushOperand(add(value == null ? builder.unknown() : builder.constant(value), pyExpr));
+            } else if (pyExpr instanceof PyTupleExpression) {
+                PyTupleExpression tuple = (PyTupleExpression) pyExpr;
+                if (operandsDone) {
+                    int item = popOperand();
+                    int items = popOperand();
+                    pushOperand(add(builder.binary(Op.TUPLE_APPEND, items, item), pyExpr));
+                    continue;
+                }
+                // Each item is followed by appending it to the tuple of the items before
+                pushOperand(add(builder.constant(PyValue.EMPTY_TUPLE), pyExpr));
+                PyExpression[] items = tuple.getElements();
+                for (int i = items.length - 1; i >= 0; i--) {
+                    push(tuple, Step.EMIT);
+                    push(items[i], Step.LOWER);
+                }
+            } else if (pyExpr instanceof PyPrefixExpression) {
+                PyPrefixExpression prefix = (PyPrefixExpression) pyExpr;
+                if (!operandsDone) {
+                    push(prefix, Step.EMIT);
+                    pushOperandOf(prefix, prefix.getOperand());
+                    continue;
+                }
+                Op op = prefixOp(prefix.getOperator());
+                int operand = popOperand();
+                pushOperand(add(op == null ? builder.unknown(operand, -1) : builder.unary(op, operand), pyExpr));
+            } else if (pyExpr instanceof PyBinaryExpression) {
+                PyBinaryExpression binary = (PyBinaryExpression) pyExpr;
+                if (!operandsDone) {
+                    push(binary, Step.EMIT);
+                    pushOperandOf(binary, binary.getRightExpression());
+                    pushOperandOf(binary, binary.getLeftExpression());
+                    continue;
+                }
+                Op op = binaryOp(binary);
+                int right = popOperand();
+                int left = popOperand();
+                if (op == null) {
+                    pushOperand(add(builder.unknown(left, right), pyExpr));
+                } else if (op.isComparison() && isComparison(binary.getLeftExpression())) {
+                    // The parser nests "a < b < c" as "(a < b) < c" without parentheses
+                    pushOperand(add(builder.chainedComparison(op, left, right), pyExpr));
+                } else {
+                    pushOperand(add(builder.binary(op, left, right), pyExpr));
+                }
+            } else if (pyExpr instanceof PyReferenceExpression && resolver != null) {
+                usesNames = true;
+                PyValue value = resolver.resolve((PyReferenceExpression) pyExpr);
+                pushOperand(add(value == null ? builder.unknown() : builder.constant(value), pyExpr));
+            } else {
+                pushOperand(add(builder.unknown(), pyExpr));
+            }
+        }
+    }
+
+    private void push(@NotNull PyExpression pyExpr, @NotNull Step step) {
+        pending.add(pyExpr);
+        steps.add(step);
+    }
+
+    /**
+     * Operands are missing from incomplete code, the parent then stands for them.
+     */
+    private void pushOperandOf(@NotNull PyExpression parent, @Nullable PyExpression operand) {
+        if (operand == null) {
+            push(parent, Step.MISSING);
+        } else {
+            push(operand, Step.LOWER);
+        }
+    }
+
+    private void pushOperand(int node) {
+        if (operandCount == operands.length) {
+            operands = Arrays.copyOf(operands, operandCount * 2);
+            operandDepths = Arrays.copyOf(operandDepths, operandCount * 2);
+        }
+        int depth = consumedDepth + 1;
+        consumedDepth = 0;
+        maxDepth = Math.max(maxDepth, depth);
+        operandDepths[operandCount] = depth;
+        operands[operandCount++] = node;
+    }
+
+    private int popOperand() {
+        operandCount--;
+        consumedDepth = Math.max(consumedDepth, operandDepths[operandCount]);
+        return operands[operandCount];
+    }
+
+    private int add(int node, @NotNull PsiElement element) {
+        elements.add(element);
+        return node;
+    }
+
+    @NotNull
+    private static PyValue numericValue(@NotNull PyNumericLiteralExpression literal) {
+        if (literal.isIntegerLiteral()) {
+            return PyValue.of(literal.getBigIntegerValue());
+        }
+        return PyValue.of(literal.getBigDecimalValue());
+    }
+
+    /**
+     * @return value of a str or bytes literal, null for f-strings and mixed concatenations
+     */
+    @Nullable
+    private static PyValue stringValue(@NotNull PyStringLiteralExpression literal) {
+        Boolean bytes = null;
+        for (ASTNode node : literal.getStringNodes()) {
+            String prefix = stringPrefix(node.getText());
+            if (prefix.indexOf('f') >= 0) {
+                return null;
+            }
+            boolean nodeBytes = prefix.indexOf('b') >= 0;
+            if (bytes != null && bytes != nodeBytes) {
+                // A syntax error
+                return null;
+            }
+            bytes = nodeBytes;
+        }
+        if (bytes == null) {
+            return null;
+        }
+        String value = literal.getStringValue();
+        return bytes ? PyValue.ofBytes(value) : PyValue.ofStr(value);
+    }
+
+    @NotNull
+    private static String stringPrefix(@NotNull String text) {
+        int length = 0;
+        while (length < text.length() && Character.isLetter(text.charAt(length))) {
+            length++;
+        }
+        return text.substring(0, length).toLowerCase(Locale.ROOT);
+    }
+
+    @Nullable
+    private static Op prefixOp(@Nullable PyElementType operator) {
+        return operator == null ? null : PREFIX_OPS.get(operator);
+    }
+
+    private static boolean isComparison(@Nullable PyExpression expression) {
+        if (!(expression instanceof PyBinaryExpression)) {
+            return false;
+        }
+        Op op = binaryOp((PyBinaryExpression) expression);
+        return op != null && op.isComparison();
+    }
+
+    /**
+     * {@code not in} and {@code is not} are two tokens, the operator is the first of them.
+     */
+    @Nullable
+    private static Op binaryOp(@NotNull PyBinaryExpression binary) {
+        PyElementType operator = binary.getOperator();
+        if (operator == PyTokenTypes.NOT_KEYWORD) {
+            return binary.isOperator("notin") ? Op.NOT_IN : null;
+        } else if (operator == PyTokenTypes.IS_KEYWORD && binary.isOperator("isnot")) {
+            return Op.IS_NOT;
+        }
+        return operator == null ? null : BINARY_OPS.get(operator);
+    }
+}
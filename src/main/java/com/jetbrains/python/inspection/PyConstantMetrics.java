@@ -0,0 +1,192 @@
+package com.jetbrains.python.inspection;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the inspection, shared by all its instances and readable over JMX.
+ * Collection can be switched off with {@code -Dpy.constant.metrics=false} or at runtime through the MBean.
+ */
+public final class PyConstantMetrics implements PyConstantMetricsMBean {
+    static final String OBJECT_NAME = "com.jetbrains.python.inspection:type=PyConstantExpression";
+    private static final Logger LOG = Logger.getInstance(PyConstantMetrics.class);
+    private static final int SLOWEST_FILES = 20;
+    /** Bucket i counts depths in [2^i, 2^(i+1)), the last one everything above. */
+    private static final int DEPTH_BUCKETS = 17;
+
+    private static final PyConstantMetrics INSTANCE = new PyConstantMetrics();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        }
+        catch (Exception e) {
+            LOG.info("Constant expression metrics are not available over JMX", e);
+        }
+    }
+
+    private volatile boolean enabled = Boolean.parseBoolean(System.getProperty("py.constant.metrics", "true"));
+
+    private final LongAdder filesInspected = new LongAdder();
+    private final LongAdder conditionsEvaluated = new LongAdder();
+    private final LongAdder nodesEvaluated = new LongAdder();
+    private final LongAdder evaluationNanos = new LongAdder();
+    private final LongAdder inspectionNanos = new LongAdder();
+    private final AtomicLong maxResultBitLength = new AtomicLong();
+    private final LongAdder[] depthHistogram = new LongAdder[DEPTH_BUCKETS];
+    private final List<FileTiming> slowestFiles = new ArrayList<>();
+
+    private PyConstantMetrics() {
+        for (int i = 0; i < DEPTH_BUCKETS; i++) {
+            depthHistogram[i] = new LongAdder();
+        }
+    }
+
+    @NotNull
+    static PyConstantMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param depth nesting depth of the evaluated expression, known from lowering
+     * @param nanos time of lowering and evaluation
+     */
+    void recordEvaluation(int depth, @NotNull PyConstantEvaluator.PyEvaluationResult result, long nanos) {
+        conditionsEvaluated.increment();
+        nodesEvaluated.add(result.getNodesEvaluated());
+        evaluationNanos.add(nanos);
+        int bits = result.getMaxResultBitLength();
+        if (bits > maxResultBitLength.get()) {
+            maxResultBitLength.accumulateAndGet(bits, Math::max);
+        }
+        depthHistogram[Math.min(31 - Integer.numberOfLeadingZeros(depth), DEPTH_BUCKETS - 1)].increment();
+    }
+
+    void recordFile(@NotNull String path, long nanos, int conditions) {
+        filesInspected.increment();
+        inspectionNanos.add(nanos);
+        synchronized (slowestFiles) {
+            // A file inspected again keeps its slowest pass
+            for (int i = 0; i < slowestFiles.size(); i++) {
+                if (slowestFiles.get(i).path.equals(path)) {
+                    if (slowestFiles.get(i).nanos >= nanos) {
+                        return;
+                    }
+                    slowestFiles.remove(i);
+                    break;
+                }
+            }
+            if (slowestFiles.size() == SLOWEST_FILES && slowestFiles.get(SLOWEST_FILES - 1).nanos >= nanos) {
+                return;
+            }
+            int i = slowestFiles.size();
+            while (i > 0 && slowestFiles.get(i - 1).nanos < nanos) {
+                i--;
+            }
+            slowestFiles.add(i, new FileTiming(path, nanos, conditions));
+            if (slowestFiles.size() > SLOWEST_FILES) {
+                slowestFiles.remove(SLOWEST_FILES);
+            }
+        }
+    }
+
+    @Override
+    public long getFilesInspected() { return filesInspected.sum(); }
+
+    @Override
+    public long getConditionsVisited() { return conditionsEvaluated.sum() + getCacheHits(); }
+
+    @Override
+    public long getConditionsEvaluated() { return conditionsEvaluated.sum(); }
+
+    @Override
+    public long getCacheHits() { return PyConstantEvaluationService.getCacheHits(); }
+
+    @Override
+    public long getCacheMisses() { return PyConstantEvaluationService.getCacheMisses(); }
+
+    @Override
+    public long getNodesEvaluated() { return nodesEvaluated.sum(); }
+
+    @Override
+    public long getEvaluationTimeMillis() { return TimeUnit.NANOSECONDS.toMillis(evaluationNanos.sum()); }
+
+    @Override
+    public long getInspectionTimeMillis() { return TimeUnit.NANOSECONDS.toMillis(inspectionNanos.sum()); }
+
+    @Override
+    public long getMaxResultBitLength() { return maxResultBitLength.get(); }
+
+    @Override
+    public String[] getDepthHistogram() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < DEPTH_BUCKETS; i++) {
+            long count = depthHistogram[i].sum();
+            if (count != 0) {
+                String range = i == DEPTH_BUCKETS - 1 ? (1 << i) + "+" : (1 << i) + "-" + ((1 << (i + 1)) - 1);
+                lines.add(range + ": " + count);
+            }
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getSlowestFiles() {
+        synchronized (slowestFiles) {
+            String[] lines = new String[slowestFiles.size()];
+            for (int i = 0; i < lines.length; i++) {
+                FileTiming timing = slowestFiles.get(i);
+                lines[i] = TimeUnit.NANOSECONDS.toMillis(timing.nanos) + " ms, " + timing.conditions + " conditions: "
+                        + timing.path;
+            }
+            return lines;
+        }
+    }
+
+    @Override
+    public void reset() {
+        filesInspected.reset();
+        conditionsEvaluated.reset();
+        PyConstantEvaluationService.resetCacheCounters();
+        nodesEvaluated.reset();
+        evaluationNanos.reset();
+        inspectionNanos.reset();
+        maxResultBitLength.set(0);
+        for (LongAdder bucket : depthHistogram) {
+            bucket.reset();
+        }
+        synchronized (slowestFiles) {
+            slowestFiles.clear();
+        }
+    }
+
+    private static class FileTiming {
+        private final String path;
+        private final long nanos;
+        private final int conditions;
+
+        private FileTiming(String path, long nanos, int conditions) {
+            this.path = path;
+            this.nanos = nanos;
+            this.conditions = conditions;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.jetbrains.python.inspection;
+
+/**
+ * JMX view of {@link PyConstantMetrics}, registered as {@value PyConstantMetrics#OBJECT_NAME}.
+ */
+public interface PyConstantMetricsMBean {
+    boolean isEnabled();
+
+    /**
+     * Disabled collection costs a single volatile read per condition.
+     */
+    void setEnabled(boolean enabled);
+
+    long getFilesInspected();
+
+    long getConditionsVisited();
+
+    long getConditionsEvaluated();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getNodesEvaluated();
+
+    long getEvaluationTimeMillis();
+
+    long getInspectionTimeMillis();
+
+    long getMaxResultBitLength();
+
+    /**
+     * @return number of evaluated conditions per expression depth range, e.g. {@code "4-7: 12"}
+     */
+    String[] getDepthHistogram();
+
+    /**
+     * @return files with the largest inspection time of a single pass, slowest first
+     */
+    String[] getSlowestFiles();
+
+    void reset();
+}
@@ -0,0 +1,402 @@
+package com.jetbrains.python.inspection;
+
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.python.inspection.PyConstantEvaluator.PyEvaluationResult;
+import com.jetbrains.python.psi.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Names of a file which are bound exactly once, by a plain assignment at the top level of their scope,
+ * together with their constant values. Built in a single pass per file modification; lookups don't
+ * resolve references and only walk up to the enclosing scopes.
+ * Names imported with {@code from module import name} take their values from the {@link PyConstantIndex}.
+ */
+final class PyConstantSymbolTable {
+    private static final long MAX_RESULT_BITS = 1 << 16;
+    private static final long TIME_LIMIT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static class Binding {
+        private int count;
+        private PyAssignmentStatement assignment;
+        private PyImportElement importElement;
+        private PyValue value;
+        private boolean computing;
+
+        @Nullable
+        private PsiElement definition() {
+            return assignment != null ? assignment : importElement;
+        }
+
+        /**
+         * @return true if the value is not known yet and depends on the definition
+         */
+        private boolean isPending() {
+            return value == null && !computing && count == 1 && definition() != null;
+        }
+    }
+
+    private final Map<PsiElement, Map<String, Binding>> scopes = new IdentityHashMap<>();
+    /** Names declared global or nonlocal anywhere, they can be rebound from other scopes. */
+    private final Set<String> escapedNames = new HashSet<>();
+    /** Offsets of the star imports of each scope in textual order, they may rebind any name after them. */
+    private final Map<PsiElement, List<Integer>> starImports = new IdentityHashMap<>();
+    private final PyConstantEvaluator evaluator =
+            new PyConstantEvaluator(MAX_RESULT_BITS, TIME_LIMIT_NANOS, ProgressManager::checkCanceled);
+    private final boolean resolveImports;
+    private boolean usesOtherFiles;
+
+    private PyConstantSymbolTable(boolean resolveImports) {
+        this.resolveImports = resolveImports;
+    }
+
+    @NotNull
+    static PyConstantSymbolTable getInstance(@NotNull PyFile file) {
+        return CachedValuesManager.getCachedValue(file, () -> {
+            PyConstantSymbolTable table = build(file, true);
+            if (!table.usesOtherFiles) {
+                return CachedValueProvider.Result.create(table, file);
+            }
+            return CachedValueProvider.Result.create(table, file, PsiModificationTracker.MODIFICATION_COUNT,
+                    DumbService.getInstance(file.getProject()).getModificationTracker());
+        });
+    }
+
+    /**
+     * @return constant values of the module-level names, not looking at other files
+     */
+    @NotNull
+    static Map<String, PyValue> moduleConstants(@NotNull PyFile file) {
+        PyConstantSymbolTable table = build(file, false);
+        Map<String, Binding> module = table.scopes.get(file);
+        if (module == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, PyValue> constants = new HashMap<>();
+        for (Map.Entry<String, Binding> entry : module.entrySet()) {
+            Binding binding = entry.getValue();
+            PyValue value = table.valueOf(binding);
+            if (value.isDetermined() && !table.escapedNames.contains(entry.getKey())
+                    && !table.isRebound(file, binding, Integer.MAX_VALUE)) {
+                constants.put(entry.getKey(), value);
+            }
+        }
+        return constants;
+    }
+
+    /**
+     * Stamp of everything imported names may depend on: other files and the readiness of the index.
+     * Both counters only grow, so their sum changes whenever one of them does.
+     */
+    static long otherFilesStamp(@NotNull Project project) {
+        return PsiModificationTracker.SERVICE.getInstance(project).getModificationCount()
+                + DumbService.getInstance(project).getModificationTracker().getModificationCount();
+    }
+
+    /**
+     * @return true if a name of the file is imported from another one, so the table changes with other files
+     */
+    boolean usesOtherFiles() {
+        return usesOtherFiles;
+    }
+
+    @NotNull
+    private static PyConstantSymbolTable build(@NotNull PyFile file, boolean resolveImports) {
+        final PyConstantSymbolTable table = new PyConstantSymbolTable(resolveImports);
+        file.accept(table.new Collector());
+        // Evaluate everything now, so the table is immutable and can be shared between threads.
+        // In textual order, names are mostly bound from earlier ones, which are known by then.
+        List<Binding> bindings = new ArrayList<>();
+        for (Map<String, Binding> scope : table.scopes.values()) {
+            for (Binding binding : scope.values()) {
+                if (binding.isPending()) {
+                    bindings.add(binding);
+                } else if (binding.value == null) {
+                    binding.value = PyValue.UNDEFINED;
+                }
+            }
+        }
+        bindings.sort(Comparator.comparingInt(binding -> binding.definition().getTextRange().getStartOffset()));
+        for (Binding binding : bindings) {
+            table.compute(binding);
+        }
+        return table;
+    }
+
+    /**
+     * @return value of the name or null if it is not a known constant at this place
+     */
+    @Nullable
+    PyValue resolve(@NotNull PyReferenceExpression reference) {
+        return resolve(reference, null);
+    }
+
+    /**
+     * @param pending collects bindings the value depends on which are not computed yet, null to compute them
+     */
+    @Nullable
+    private PyValue resolve(@NotNull PyReferenceExpression reference, @Nullable List<Binding> pending) {
+        if (reference.isQualified()) {
+            return null;
+        }
+        final String name = reference.getReferencedName();
+        if (name == null || escapedNames.contains(name)) {
+            return null;
+        }
+        PsiElement owner = getScopeOwner(reference);
+        boolean sameScope = true;
+        while (owner != null) {
+            // Class bodies are not visible from nested scopes
+            if (sameScope || !(owner instanceof PyClass)) {
+                Map<String, Binding> scope = scopes.get(owner);
+                Binding binding = scope == null ? null : scope.get(name);
+                if (binding != null) {
+                    int offset = reference.getTextRange().getStartOffset();
+                    if (binding.definition() == null) {
+                        return null;
+                    } else if (sameScope && offset < binding.definition().getTextRange().getEndOffset()) {
+                        // Used before the assignment has run
+                        return null;
+                    } else if (isRebound(owner, binding, sameScope ? offset : Integer.MAX_VALUE)) {
+                        return null;
+                    } else if (pending != null && binding.isPending()) {
+                        pending.add(binding);
+                        return null;
+                    }
+                    PyValue value = valueOf(binding);
+                    return value.isDetermined() ? value : null;
+                } else if (starImports.containsKey(owner)) {
+                    return null;
+                }
+            }
+            sameScope = false;
+            owner = getScopeOwner(owner);
+        }
+        return null;
+    }
+
+    /**
+     * @param before offset the name is used at, names used in nested scopes may be rebound anywhere after
+     * @return true if a star import between the binding and the use may rebind the name
+     */
+    private boolean isRebound(@NotNull PsiElement owner, @NotNull Binding binding, int before) {
+        List<Integer> offsets = starImports.get(owner);
+        if (offsets == null) {
+            return false;
+        }
+        int definitionEnd = binding.definition().getTextRange().getEndOffset();
+        for (int offset : offsets) {
+            if (offset > definitionEnd && offset < before) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NotNull
+    private PyValue valueOf(@NotNull Binding binding) {
+        if (binding.isPending()) {
+            compute(binding);
+        }
+        return binding.value != null ? binding.value : PyValue.UNDEFINED;
+    }
+
+    /**
+     * Computes the value of the binding and the values it depends on with an explicit stack, so long
+     * chains of names bound from each other don't overflow the call stack. A cycle leaves its names undefined.
+     */
+    private void compute(@NotNull Binding root) {
+        Deque<Binding> stack = new ArrayDeque<>();
+        stack.push(root);
+        List<Binding> pending = new ArrayList<>();
+        while (!stack.isEmpty()) {
+            Binding binding = stack.peek();
+            if (binding.value != null) {
+                stack.pop();
+                continue;
+            }
+            binding.computing = true;
+            pending.clear();
+            PyValue value = computeDefinition(binding, pending);
+            if (pending.isEmpty()) {
+                binding.computing = false;
+                binding.value = value;
+                stack.pop();
+            } else {
+                for (Binding dependency : pending) {
+                    stack.push(dependency);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return value of the definition, meaningless if it depends on bindings added to {@code pending}
+     */
+    @NotNull
+    private PyValue computeDefinition(@NotNull Binding binding, @NotNull List<Binding> pending) {
+        if (binding.importElement != null) {
+            PyValue value = null;
+            if (resolveImports) {
+                usesOtherFiles = true;
+                value = PyConstantIndex.resolveImport(binding.importElement);
+            }
+            return value == null ? PyValue.UNDEFINED : value;
+        }
+        PyExpression assigned = binding.assignment.getAssignedValue();
+        if (assigned == null) {
+            return PyValue.UNDEFINED;
+        }
+        PyConstantLowering.Lowered lowered = PyConstantLowering.lower(assigned, reference -> resolve(reference, pending));
+        if (!pending.isEmpty()) {
+            return PyValue.UNDEFINED;
+        }
+        PyEvaluationResult result = evaluator.evaluate(lowered.getIr());
+        // A failing right-hand side raises at the assignment, the name is never bound
+        if (result.getValue().isDetermined() && result.getDiagnostics().isEmpty()) {
+            return result.getValue().getValue();
+        }
+        return PyValue.UNDEFINED;
+    }
+
+    @Nullable
+    private static PsiElement getScopeOwner(@NotNull PsiElement element) {
+        return PsiTreeUtil.getParentOfType(element, PyFunction.class, PyClass.class, PyFile.class);
+    }
+
+    private class Collector extends PyRecursiveElementVisitor {
+
+        @Nullable
+        private Binding bind(@NotNull PsiElement element, @Nullable String name, @Nullable PyAssignmentStatement assignment) {
+            PsiElement owner = getScopeOwner(element);
+            if (name == null || owner == null) {
+                return null;
+            }
+            Binding binding = scopes.computeIfAbsent(owner, o -> new HashMap<>()).computeIfAbsent(name, n -> new Binding());
+            binding.count++;
+            binding.assignment = assignment;
+            binding.importElement = null;
+            return binding;
+        }
+
+        @Override
+        public void visitPyTargetExpression(PyTargetExpression node) {
+            super.visitPyTargetExpression(node);
+            if (node.isQualified()) {
+                return;
+            }
+            PsiElement parent = node.getParent();
+            PyAssignmentStatement assignment = null;
+            if (parent instanceof PyAssignmentStatement && isTopLevel((PyStatement) parent)
+                    && ((PyAssignmentStatement) parent).getLeftHandSideExpression() == node) {
+                assignment = (PyAssignmentStatement) parent;
+            }
+            bind(node, node.getName(), assignment);
+        }
+
+        /**
+         * Only statements directly in the module, class or function body always run before what follows them.
+         */
+        private boolean isTopLevel(@NotNull PyStatement statement) {
+            PsiElement parent = statement.getParent();
+            return parent instanceof PyFile
+                    || parent instanceof PyStatementList
+                    && (parent.getParent() instanceof PyFunction || parent.getParent() instanceof PyClass);
+        }
+
+        @Override
+        public void visitPyNamedParameter(PyNamedParameter node) {
+            super.visitPyNamedParameter(node);
+            bind(node, node.getName(), null);
+        }
+
+        @Override
+        public void visitPyFunction(PyFunction node) {
+            bind(node, node.getName(), null);
+            super.visitPyFunction(node);
+        }
+
+        @Override
+        public void visitPyClass(PyClass node) {
+            bind(node, node.getName(), null);
+            super.visitPyClass(node);
+        }
+
+        @Override
+        public void visitPyImportElement(PyImportElement node) {
+            super.visitPyImportElement(node);
+            Binding binding = bind(node, node.getVisibleName(), null);
+            PyStatement statement = node.getContainingImportStatement();
+            if (binding != null && statement instanceof PyFromImportStatement && isTopLevel(statement)) {
+                binding.importElement = node;
+            }
+        }
+
+        @Override
+        public void visitPyFromImportStatement(PyFromImportStatement node) {
+            super.visitPyFromImportStatement(node);
+            if (node.isStarImport()) {
+                PsiElement owner = getScopeOwner(node);
+                if (owner != null) {
+                    starImports.computeIfAbsent(owner, o -> new ArrayList<>())
+                            .add(node.getTextRange().getStartOffset());
+                }
+            }
+        }
+
+        @Override
+        public void visitPyGlobalStatement(PyGlobalStatement node) {
+            super.visitPyGlobalStatement(node);
+            for (PyTargetExpression target : node.getGlobals()) {
+                escapedNames.add(target.getName());
+            }
+        }
+
+        @Override
+        public void visitPyNonlocalStatement(PyNonlocalStatement node) {
+            super.visitPyNonlocalStatement(node);
+            for (PyTargetExpression target : node.getVariables()) {
+                escapedNames.add(target.getName());
+            }
+        }
+
+        @Override
+        public void visitPyDelStatement(PyDelStatement node) {
+            super.visitPyDelStatement(node);
+            for (PyExpression target : node.getTargets()) {
+                if (target instanceof PyReferenceExpression && !((PyReferenceExpression) target).isQualified()) {
+                    bind(target, ((PyReferenceExpression) target).getReferencedName(), null);
+                }
+            }
+        }
+
+        @Override
+        public void visitPyAugAssignmentStatement(PyAugAssignmentStatement node) {
+            super.visitPyAugAssignmentStatement(node);
+            PyExpression target = node.getTarget();
+            if (target instanceof PyReferenceExpression && !((PyReferenceExpression) target).isQualified()) {
+                bind(target, ((PyReferenceExpression) target).getReferencedName(), null);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.jetbrains.python.inspection;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiElement;
+import com.jetbrains.python.psi.*;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Removes the branches of an {@code if} statement which can never run because of a constant condition:
+ * <ul>
+ * <li>always false: the part with the condition;</li>
+ * <li>always true: the other branches after it, unwrapping the body if nothing remains before it.</li>
+ * </ul>
+ */
+class PyRemoveDeadBranchFix extends PyConstantConditionFix {
+    private static final String IF_ELSE_TEMPLATE = "if True:\n    pass\nelse:\n    pass";
+
+    PyRemoveDeadBranchFix(boolean value) {
+        super(value);
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+        return value ? "Remove the branches which are never reached" : "Remove the branch which is never reached";
+    }
+
+    @NotNull
+    @Override
+    public String getFamilyName() {
+        return "Remove unreachable branches of constant conditions";
+    }
+
+    @Override
+    protected void apply(@NotNull Project project, @NotNull PyExpression condition, @NotNull PyIfPart part,
+                         @NotNull PyIfStatement statement) {
+        PyElementGenerator generator = PyElementGenerator.getInstance(project);
+        LanguageLevel level = LanguageLevel.forElement(statement);
+        if (value) {
+            if (!part.isElif()) {
+                replaceWithBody(generator, statement, part.getStatementList());
+                return;
+            }
+            boolean after = false;
+            for (PyIfPart elif : statement.getElifParts()) {
+                if (after) {
+                    elif.delete();
+                }
+                after |= elif == part;
+            }
+            if (statement.getElsePart() != null) {
+                statement.getElsePart().delete();
+            }
+            // "elif True:" becomes "else:"
+            PyElsePart elsePart = generator.createFromText(level, PyIfStatement.class, IF_ELSE_TEMPLATE).getElsePart();
+            elsePart.getStatementList().replace(part.getStatementList());
+            part.replace(elsePart);
+        } else if (part.isElif()) {
+            part.delete();
+        } else if (statement.getElifParts().length > 0) {
+            // The first elif becomes the if
+            PyIfPart elif = statement.getElifParts()[0];
+            PyIfPart ifPart = generator.createFromText(level, PyIfStatement.class, IF_ELSE_TEMPLATE).getIfPart();
+            ifPart.getCondition().replace(elif.getCondition());
+            ifPart.getStatementList().replace(elif.getStatementList());
+            elif.delete();
+            part.replace(ifPart);
+        } else if (statement.getElsePart() != null) {
+            replaceWithBody(generator, statement, statement.getElsePart().getStatementList());
+        } else {
+            delete(generator, statement);
+        }
+    }
+
+    private static void replaceWithBody(@NotNull PyElementGenerator generator, @NotNull PyIfStatement statement,
+                                        @NotNull PyStatementList body) {
+        PyStatement[] statements = body.getStatements();
+        if (statements.length == 0) {
+            delete(generator, statement);
+            return;
+        }
+        // Added statements are reindented by the postponed formatting
+        statement.getParent().addRangeBefore(statements[0], statements[statements.length - 1], statement);
+        statement.delete();
+    }
+
+    /**
+     * Deletes the statement, leaving {@code pass} if the block would be empty.
+     */
+    private static void delete(@NotNull PyElementGenerator generator, @NotNull PyStatement statement) {
+        PsiElement parent = statement.getParent();
+        if (parent instanceof PyStatementList && ((PyStatementList) parent).getStatements().length == 1) {
+            statement.replace(generator.createPassStatement());
+        } else {
+            statement.delete();
+        }
+    }
+}
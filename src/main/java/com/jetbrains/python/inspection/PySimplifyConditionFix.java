@@ -0,0 +1,34 @@
+package com.jetbrains.python.inspection;
+
+import com.intellij.openapi.project.Project;
+import com.jetbrains.python.psi.*;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Replaces a constant condition with {@code True} or {@code False}.
+ */
+class PySimplifyConditionFix extends PyConstantConditionFix {
+
+    PySimplifyConditionFix(boolean value) {
+        super(value);
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+        return "Replace the condition with " + (value ? "True" : "False");
+    }
+
+    @NotNull
+    @Override
+    public String getFamilyName() {
+        return "Replace constant conditions with their values";
+    }
+
+    @Override
+    protected void apply(@NotNull Project project, @NotNull PyExpression condition, @NotNull PyIfPart part,
+                         @NotNull PyIfStatement statement) {
+        PyElementGenerator generator = PyElementGenerator.getInstance(project);
+        condition.replace(generator.createExpressionFromText(LanguageLevel.forElement(condition), value ? "True" : "False"));
+    }
+}
@@ -1,248 +1,1066 @@
 package com.jetbrains.python.inspection;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 
-public class PyValue {
+/**
+ * Immutable Python constant. Integers are kept in a {@code long} and switch to {@link BigInteger} only
+ * when a result does not fit, floats are plain IEEE-754 {@code double}s.
+ * Strings and bytes are {@link Text}s, tuples are small arrays of values, see {@link Tuple}.
+ */
+public final class PyValue {
     private enum Type {
         UNDEFINED,
+        LONG,
         BIG_INTEGER,
-        BIG_DECIMAL,
-        OBJECT
+        DOUBLE,
+        NONE,
+        STR,
+        BYTES,
+        TUPLE
     }
 
-    static final PyValue ZERO = new PyValue(BigInteger.ZERO);
-    static final PyValue ONE = new PyValue(BigInteger.ONE);
+    /** Longer tuples are not built, their elements are compared one by one */
+    private static final int MAX_TUPLE_SIZE = 256;
+    /** Deeper nesting is not built, so comparisons don't need the whole thread stack */
+    private static final int MAX_TUPLE_DEPTH = 32;
 
-    private static final int precision = 19;
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1024;
+    private static final PyValue[] CACHE = new PyValue[CACHE_HIGH - CACHE_LOW + 1];
 
-    private Type type;
-    private Object value;
-
-    private void setThis() {
-        type = Type.UNDEFINED;
-        value = null;
+    static {
+        for (int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = new PyValue(Type.LONG, CACHE_LOW + i, 0.0, null);
+        }
     }
 
-    private void setThis(BigInteger bigInt) {
-        type = Type.BIG_INTEGER;
-        value = bigInt;
+    static final PyValue UNDEFINED = new PyValue(Type.UNDEFINED, 0, 0.0, null);
+    static final PyValue ZERO = of(0);
+    static final PyValue ONE = of(1);
+    static final PyValue MINUS_ONE = of(-1);
+    static final PyValue DOUBLE_ZERO = new PyValue(Type.DOUBLE, 0, 0.0, null);
+    static final PyValue DOUBLE_ONE = new PyValue(Type.DOUBLE, 0, 1.0, null);
+    static final PyValue NONE = new PyValue(Type.NONE, 0, 0.0, null);
+    static final PyValue EMPTY_TUPLE = new PyValue(Type.TUPLE, 0, 0.0, new Tuple(new PyValue[0], 1));
+
+    private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+    /** Longs with an absolute value below 2^53 convert to double exactly. */
+    private static final long EXACT_DOUBLE_LIMIT = 1L << 53;
+
+    private final Type type;
+    private final long longValue;
+    private final double doubleValue;
+    private final Object value;
+
+    private PyValue(Type type, long longValue, double doubleValue, Object value) {
+        this.type = type;
+        this.longValue = longValue;
+        this.doubleValue = doubleValue;
+        this.value = value;
     }
 
-    private void setThis(BigDecimal bigDec) {
-        type = Type.BIG_DECIMAL;
-        value = bigDec;
+    static PyValue of(long l) {
+        if (l >= CACHE_LOW && l <= CACHE_HIGH) {
+            return CACHE[(int) l - CACHE_LOW];
+        }
+        return new PyValue(Type.LONG, l, 0.0, null);
     }
 
-    private void setThis(Object obj) {
-        type = Type.OBJECT;
-        value = obj;
+    static PyValue of(double d) {
+        if (d == 0.0 && Double.doubleToRawLongBits(d) == 0L) {
+            return DOUBLE_ZERO;
+        } else if (d == 1.0) {
+            return DOUBLE_ONE;
+        }
+        return new PyValue(Type.DOUBLE, 0, d, null);
     }
 
-    PyValue() { setThis(); }
-    PyValue(BigInteger bigInt) { setThis(bigInt); }
-    PyValue(BigDecimal bigDec) { setThis(bigDec); }
-    /*PyValue(Object obj) {
-        if (obj == null) {
-            setThis();
-        } else if (obj instanceof BigInteger) {
-            setThis((BigInteger) obj);
-        } else if (obj instanceof BigDecimal) {
-            setThis((BigDecimal) obj);
-        } else {
-            setThis(obj);
+    static PyValue of(BigInteger bigInt) {
+        if (bigInt.bitLength() < Long.SIZE) {
+            return of(bigInt.longValue());
         }
-    }*/
+        return new PyValue(Type.BIG_INTEGER, 0, 0.0, bigInt);
+    }
+
+    static PyValue of(BigDecimal bigDec) {
+        return of(bigDec.doubleValue());
+    }
+
+    static PyValue of(boolean b) {
+        return b ? ONE : ZERO;
+    }
+
+    /**
+     * @param s decoded contents of a str literal
+     */
+    static PyValue ofStr(String s) {
+        return new PyValue(Type.STR, 0, 0.0, new Text(s));
+    }
+
+    /**
+     * @param s decoded contents of a bytes literal, one char per byte
+     */
+    static PyValue ofBytes(String s) {
+        return new PyValue(Type.BYTES, 0, 0.0, new Text(s));
+    }
 
     boolean isDetermined() { return type != Type.UNDEFINED; }
-    boolean isNumber() { return type == Type.BIG_INTEGER || type == Type.BIG_DECIMAL; }
-    boolean isInteger() { return type == Type.BIG_INTEGER; }
-    boolean isDouble() { return type == Type.BIG_DECIMAL; }
-    boolean isObject() { return type == Type.OBJECT; }
+    boolean isNumber() { return type == Type.LONG || type == Type.BIG_INTEGER || type == Type.DOUBLE; }
+    boolean isInteger() { return type == Type.LONG || type == Type.BIG_INTEGER; }
+    boolean isDouble() { return type == Type.DOUBLE; }
+    boolean isNone() { return type == Type.NONE; }
+    boolean isText() { return type == Type.STR || type == Type.BYTES; }
+    boolean isTuple() { return type == Type.TUPLE; }
+    boolean isNaN() { return type == Type.DOUBLE && Double.isNaN(doubleValue); }
+
+    /**
+     * Truth value as in {@code if value:}, false when undefined.
+     */
+    boolean isTrue() {
+        switch (type) {
+            case LONG: return longValue != 0;
+            case BIG_INTEGER: return true;
+            case DOUBLE: return doubleValue != 0.0;
+            case STR:
+            case BYTES: return ((Text) value).length != 0;
+            case TUPLE: return ((Tuple) value).items.length != 0;
+            default: return false;
+        }
+    }
+
+    /**
+     * Boxes numbers and flattens strings, so avoid it on the hot path.
+     * @return underlying Java object: a number, a {@code String} for str and bytes, a {@code PyValue[]} for tuples
+     * or null when undefined or None
+     */
+    Object getValue() {
+        switch (type) {
+            case LONG: return longValue;
+            case DOUBLE: return doubleValue;
+            case STR:
+            case BYTES: return ((Text) value).flat();
+            case TUPLE: return ((Tuple) value).items.clone();
+            default: return value;
+        }
+    }
+
+    /**
+     * Key for interning constants, equal only for the same constant: 1 and 1.0 are equal values
+     * but different constants, and so are (1,) and (1.0,). Tuples are keyed by the keys of their items.
+     */
+    Object constantKey() {
+        switch (type) {
+            case LONG: return longValue;
+            case DOUBLE: return doubleValue;
+            case BIG_INTEGER: return value;
+            case TUPLE:
+                PyValue[] items = ((Tuple) value).items;
+                Object[] keys = new Object[items.length];
+                for (int i = 0; i < items.length; i++) {
+                    keys[i] = items[i].constantKey();
+                }
+                return Arrays.asList(keys);
+            default: return this;
+        }
+    }
+
+    /**
+     * @return the number of bits needed to represent an integer, 0 for other values
+     */
+    int bitLength() {
+        switch (type) {
+            case LONG: return 64 - Long.numberOfLeadingZeros(longValue < 0 ? ~longValue : longValue);
+            case BIG_INTEGER: return ((BigInteger) value).bitLength();
+            default: return 0;
+        }
+    }
 
-    Object getValue() { return value; }
+    int signum() {
+        switch (type) {
+            case LONG: return Long.signum(longValue);
+            case BIG_INTEGER: return ((BigInteger) value).signum();
+            case DOUBLE: return doubleValue > 0 ? 1 : doubleValue < 0 ? -1 : 0;
+            default: return 0;
+        }
+    }
+
+    /**
+     * Upper bound of the bit length of {@code a * b}, 0 unless both are integers.
+     */
+    static long multiplyBitLength(PyValue a, PyValue b) {
+        if (!a.isInteger() || !b.isInteger()) {
+            return 0;
+        }
+        return (long) a.bitLength() + b.bitLength();
+    }
+
+    /**
+     * Upper bound of the bit length of {@code this ** exponent}, 0 unless the result is an integer.
+     */
+    long powBitLength(PyValue exponent) {
+        if (!isInteger() || !exponent.isInteger() || exponent.signum() <= 0) {
+            return 0;
+        }
+        if (compareTo(ONE) <= 0 && compareTo(MINUS_ONE) >= 0) {
+            return 1;
+        }
+        long bits = bitLength() + 1;
+        long times = exponent.type == Type.LONG ? exponent.longValue : Long.MAX_VALUE;
+        return times > Long.MAX_VALUE / bits ? Long.MAX_VALUE : bits * times;
+    }
+
+    /**
+     * Upper bound of the bit length of {@code this << shift}, 0 unless both are integers.
+     */
+    long shiftLeftBitLength(PyValue shift) {
+        if (!isInteger() || !shift.isInteger() || signum() == 0 || shift.signum() <= 0) {
+            return 0;
+        }
+        long times = shift.type == Type.LONG ? shift.longValue : Long.MAX_VALUE;
+        return times > Long.MAX_VALUE - bitLength() ? Long.MAX_VALUE : bitLength() + times;
+    }
 
     BigInteger getBigInteger() {
-        if (!isInteger()) {
-            return BigInteger.ZERO;
+        switch (type) {
+            case LONG: return BigInteger.valueOf(longValue);
+            case BIG_INTEGER: return (BigInteger) value;
+            default: return BigInteger.ZERO;
         }
-        return (BigInteger) value;
     }
 
+    /**
+     * Exact decimal form of a finite number.
+     */
     BigDecimal getBigDecimal() {
-        if (!isNumber()) {
-            return BigDecimal.ZERO;
-        } else if (type == Type.BIG_INTEGER) {
-            return new BigDecimal((BigInteger) value);
+        switch (type) {
+            case LONG: return BigDecimal.valueOf(longValue);
+            case BIG_INTEGER: return new BigDecimal((BigInteger) value);
+            case DOUBLE: return new BigDecimal(doubleValue);
+            default: return BigDecimal.ZERO;
         }
-        return (BigDecimal) value;
+    }
+
+    /**
+     * Python int to float conversion. Integers too large for a double have no float value.
+     * @return the value as a double or NaN when the conversion would overflow
+     */
+    private double toDouble() {
+        switch (type) {
+            case LONG: return longValue;
+            case DOUBLE: return doubleValue;
+            case BIG_INTEGER:
+                double d = ((BigInteger) value).doubleValue();
+                return Double.isInfinite(d) ? Double.NaN : d;
+            default: return Double.NaN;
+        }
+    }
+
+    /**
+     * Int value of a small integer, used for shift amounts and exponents.
+     * @return the value or {@code fallback} when it does not fit into an int
+     */
+    private int intValueOr(int fallback) {
+        if (type == Type.LONG && longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE) {
+            return (int) longValue;
+        }
+        return fallback;
+    }
+
+    private static boolean bothLong(PyValue a, PyValue b) {
+        return a.type == Type.LONG && b.type == Type.LONG;
+    }
+
+    private static boolean anyDouble(PyValue a, PyValue b) {
+        return a.type == Type.DOUBLE || b.type == Type.DOUBLE;
+    }
+
+    private static PyValue ofDouble(double d) {
+        return Double.isNaN(d) ? UNDEFINED : of(d);
     }
 
     String getTypeString() {
         switch (type) {
+            case LONG:
             case BIG_INTEGER: return "integer";
-            case BIG_DECIMAL: return "float";
+            case DOUBLE: return "float";
             case UNDEFINED: return "undefined";
-            case OBJECT: return "object";
+            case NONE: return "None";
+            case STR: return "string";
+            case BYTES: return "bytes";
+            case TUPLE: return "tuple";
         }
         return type.toString();
     }
 
     @Override
     public String toString() {
-        return value.toString();
+        switch (type) {
+            case LONG: return Long.toString(longValue);
+            case DOUBLE: return Double.toString(doubleValue);
+            case NONE: return "None";
+            case STR: return "'" + ((Text) value).flat() + "'";
+            case BYTES: return "b'" + ((Text) value).flat() + "'";
+            case TUPLE:
+                PyValue[] items = ((Tuple) value).items;
+                StringBuilder builder = new StringBuilder("(");
+                for (int i = 0; i < items.length; i++) {
+                    builder.append(i == 0 ? "" : ", ").append(items[i]);
+                }
+                return builder.append(items.length == 1 ? ",)" : ")").toString();
+            default: return String.valueOf(value);
+        }
     }
 
+    /**
+     * Numeric equality as in Python, so {@code 1 == 1.0}.
+     */
     @Override
     public boolean equals(Object another) {
+        if (this == another) {
+            return true;
+        }
         if (!(another instanceof PyValue))
             return false;
         PyValue other = (PyValue)another;
-        return value.equals(other.value);
+        if (isNumber() && other.isNumber()) {
+            return !isNaN() && !other.isNaN() && compareTo(other) == 0;
+        }
+        return type == other.type && (value == null ? other.value == null : value.equals(other.value));
     }
 
+    @Override
+    public int hashCode() {
+        switch (type) {
+            case LONG:
+                return Long.hashCode(longValue);
+            case BIG_INTEGER:
+                return value.hashCode();
+            case DOUBLE:
+                if (doubleValue == Math.rint(doubleValue) && !Double.isInfinite(doubleValue)) {
+                    if (doubleValue >= -0x1p63 && doubleValue < 0x1p63) {
+                        return Long.hashCode((long) doubleValue);
+                    }
+                    return new BigDecimal(doubleValue).toBigInteger().hashCode();
+                }
+                return Double.hashCode(doubleValue);
+            default:
+                return value == null ? 0 : value.hashCode();
+        }
+    }
+
+    /**
+     * Exact comparison, mixed integer/float operands are not rounded. NaN compares equal to everything,
+     * check {@link #isNaN()} first. Other values only compare equal or not, see {@link #order} for them.
+     */
     int compareTo(PyValue other) {
         if (type == Type.UNDEFINED && other.type == Type.UNDEFINED) {
             return 0;
         } else if (type == Type.UNDEFINED || other.type == Type.UNDEFINED) {
             return (type == Type.UNDEFINED) ? -1 : 1;
         } else if (!isNumber() || !other.isNumber()) {
-            return value.equals(other.value) ? 0 : -1;
+            return equals(other) ? 0 : -1;
         }
-        if (isInteger() && other.isInteger()) {
-            return ((BigInteger) value).compareTo((BigInteger) other.value);
+        if (bothLong(this, other)) {
+            return Long.compare(longValue, other.longValue);
+        } else if (type == Type.DOUBLE && other.type == Type.DOUBLE) {
+            return doubleValue < other.doubleValue ? -1 : doubleValue > other.doubleValue ? 1 : 0;
+        } else if (type == Type.DOUBLE) {
+            return -other.compareTo(this);
+        } else if (other.type == Type.DOUBLE) {
+            double d = other.doubleValue;
+            if (Double.isNaN(d)) {
+                return 0;
+            } else if (Double.isInfinite(d)) {
+                return d > 0 ? -1 : 1;
+            } else if (type == Type.LONG && Math.abs(longValue) < EXACT_DOUBLE_LIMIT) {
+                double l = longValue;
+                return l < d ? -1 : l > d ? 1 : 0;
+            }
+            return getBigDecimal().compareTo(new BigDecimal(d));
+        }
+        return getBigInteger().compareTo(other.getBigInteger());
+    }
+
+    /**
+     * Python {@code ==}.
+     * @return {@link #ONE} or {@link #ZERO}, undefined if it depends on the language level
+     */
+    PyValue equalsValue(PyValue other) {
+        if (!isDetermined() || !other.isDetermined()) {
+            return UNDEFINED;
+        } else if (isNumber() && other.isNumber()) {
+            return isNaN() || other.isNaN() ? UNDEFINED : of(compareTo(other) == 0);
+        } else if (isText() && other.isText() && type != other.type) {
+            // Python 2 str literals are bytes, and may equal unicode ones
+            return UNDEFINED;
+        } else if (type != other.type) {
+            return ZERO;
+        } else if (type != Type.TUPLE) {
+            return of(equals(other));
+        }
+        PyValue[] items = ((Tuple) value).items;
+        PyValue[] otherItems = ((Tuple) other.value).items;
+        if (items.length != otherItems.length) {
+            return ZERO;
+        }
+        PyValue result = ONE;
+        for (int i = 0; i < items.length; i++) {
+            PyValue itemResult = items[i].equalsValue(otherItems[i]);
+            if (itemResult == ZERO) {
+                return ZERO;
+            } else if (itemResult == UNDEFINED) {
+                result = UNDEFINED;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Python {@code is}, only known when None is involved: other values may or may not be the same object.
+     */
+    PyValue identityValue(PyValue other) {
+        if (!isDetermined() || !other.isDetermined() || (type != Type.NONE && other.type != Type.NONE)) {
+            return UNDEFINED;
+        }
+        return of(type == other.type);
+    }
+
+    /**
+     * Python {@code item in this} for strings, bytes and tuples. Nothing is in an empty tuple, even an undefined item.
+     * An int in bytes is undefined like other mixes of str and bytes: bytes are str in Python 2, where it raises.
+     * @return {@link #ONE} or {@link #ZERO}, undefined for other containers or mismatching items
+     */
+    PyValue containsValue(PyValue item) {
+        if (type == Type.TUPLE && ((Tuple) value).items.length == 0) {
+            return ZERO;
+        } else if (!item.isDetermined()) {
+            return UNDEFINED;
+        }
+        switch (type) {
+            case STR:
+            case BYTES:
+                return item.type == type ? of(((Text) value).contains((Text) item.value)) : UNDEFINED;
+            case TUPLE:
+                PyValue result = ZERO;
+                for (PyValue element : ((Tuple) value).items) {
+                    PyValue elementResult = element.equalsValue(item);
+                    if (elementResult == ONE) {
+                        return ONE;
+                    } else if (elementResult == UNDEFINED) {
+                        result = UNDEFINED;
+                    }
+                }
+                return result;
+            default:
+                return UNDEFINED;
+        }
+    }
+
+    /**
+     * @return true if {@code in} raises for this container whatever the item is
+     */
+    boolean isNotContainer() {
+        return isNumber() || type == Type.NONE;
+    }
+
+    /**
+     * Ordering of strings, bytes and tuples, numbers are compared with {@link #compareTo}.
+     * @return -1, 0 or 1 as a value, undefined if the operands are not ordered
+     */
+    PyValue order(PyValue other) {
+        if (isNumber() && other.isNumber()) {
+            return isNaN() || other.isNaN() ? UNDEFINED : of(Integer.signum(compareTo(other)));
+        } else if (type != other.type) {
+            return UNDEFINED;
+        } else if (type == Type.STR || type == Type.BYTES) {
+            return of(Integer.signum(((Text) value).compareCodePoints((Text) other.value)));
+        } else if (type != Type.TUPLE) {
+            return UNDEFINED;
+        }
+        // The first differing items decide, as in Python
+        PyValue[] items = ((Tuple) value).items;
+        PyValue[] otherItems = ((Tuple) other.value).items;
+        for (int i = 0; i < Math.min(items.length, otherItems.length); i++) {
+            PyValue itemResult = items[i].equalsValue(otherItems[i]);
+            if (itemResult == UNDEFINED) {
+                return UNDEFINED;
+            } else if (itemResult == ZERO) {
+                return items[i].order(otherItems[i]);
+            }
+        }
+        return of(Integer.signum(Integer.compare(items.length, otherItems.length)));
+    }
+
+    /**
+     * Upper bound of the bits taken by {@code a + b}, 0 unless both are strings or bytes.
+     */
+    static long concatBitLength(PyValue a, PyValue b) {
+        if (!a.isText() || a.type != b.type) {
+            return 0;
+        }
+        return ((long) ((Text) a.value).length + ((Text) b.value).length) * Character.SIZE;
+    }
+
+    /**
+     * @return the tuple with the item appended or undefined if it gets too large
+     */
+    PyValue append(PyValue item) {
+        if (type != Type.TUPLE || !item.isDetermined()) {
+            return UNDEFINED;
+        }
+        Tuple tuple = (Tuple) value;
+        int depth = item.type == Type.TUPLE ? ((Tuple) item.value).depth + 1 : 1;
+        if (tuple.items.length == MAX_TUPLE_SIZE || depth > MAX_TUPLE_DEPTH) {
+            return UNDEFINED;
         }
-        return getBigDecimal().compareTo(other.getBigDecimal());
+        PyValue[] items = Arrays.copyOf(tuple.items, tuple.items.length + 1);
+        items[tuple.items.length] = item;
+        return new PyValue(Type.TUPLE, 0, 0.0, new Tuple(items, Math.max(tuple.depth, depth)));
     }
 
     PyValue negate() {
         switch (type) {
+            case LONG:
+                return longValue == Long.MIN_VALUE ? of(LONG_MAX.add(BigInteger.ONE)) : of(-longValue);
             case BIG_INTEGER:
-                return new PyValue(((BigInteger) value).negate());
-            case BIG_DECIMAL:
-                return new PyValue(((BigDecimal) value).negate());
+                return of(((BigInteger) value).negate());
+            case DOUBLE:
+                return of(-doubleValue);
             default:
-                return new PyValue();
+                return UNDEFINED;
         }
     }
 
     PyValue add(PyValue other) {
-        if (isInteger() && other.isInteger()) {
-            return new PyValue(((BigInteger) value).add((BigInteger) other.value));
-        } else if (isNumber() && other.isNumber()) {
-            return new PyValue(getBigDecimal().add(other.getBigDecimal()));
+        if (bothLong(this, other)) {
+            long a = longValue;
+            long b = other.longValue;
+            long r = a + b;
+            if (((a ^ r) & (b ^ r)) >= 0) {
+                return of(r);
+            }
+            return of(BigInteger.valueOf(a).add(BigInteger.valueOf(b)));
+        } else if (anyDouble(this, other)) {
+            return ofDouble(toDouble() + other.toDouble());
+        } else if (isInteger() && other.isInteger()) {
+            return of(getBigInteger().add(other.getBigInteger()));
+        } else if (isText() && type == other.type) {
+            return new PyValue(type, 0, 0.0, Text.concat((Text) value, (Text) other.value));
+        } else if (type == Type.TUPLE && other.type == Type.TUPLE) {
+            Tuple tuple = (Tuple) value;
+            Tuple otherTuple = (Tuple) other.value;
+            if (tuple.items.length + otherTuple.items.length > MAX_TUPLE_SIZE) {
+                return UNDEFINED;
+            }
+            PyValue[] items = Arrays.copyOf(tuple.items, tuple.items.length + otherTuple.items.length);
+            System.arraycopy(otherTuple.items, 0, items, tuple.items.length, otherTuple.items.length);
+            return new PyValue(Type.TUPLE, 0, 0.0, new Tuple(items, Math.max(tuple.depth, otherTuple.depth)));
         }
-        return new PyValue();
+        return UNDEFINED;
     }
 
     PyValue subtract(PyValue other) {
-        if (isInteger() && other.isInteger()) {
-            return new PyValue(((BigInteger) value).subtract((BigInteger) other.value));
-        } else if (isNumber() && other.isNumber()) {
-            return new PyValue(getBigDecimal().subtract(other.getBigDecimal()));
+        if (bothLong(this, other)) {
+            long a = longValue;
+            long b = other.longValue;
+            long r = a - b;
+            if (((a ^ b) & (a ^ r)) >= 0) {
+                return of(r);
+            }
+            return of(BigInteger.valueOf(a).subtract(BigInteger.valueOf(b)));
+        } else if (anyDouble(this, other)) {
+            return ofDouble(toDouble() - other.toDouble());
+        } else if (isInteger() && other.isInteger()) {
+            return of(getBigInteger().subtract(other.getBigInteger()));
         }
-        return new PyValue();
+        return UNDEFINED;
     }
 
     PyValue multiply(PyValue other) {
-        if (isInteger() && other.isInteger()) {
-            return new PyValue(((BigInteger) value).multiply((BigInteger) other.value));
-        } else if (isNumber() && other.isNumber()) {
-            return new PyValue(getBigDecimal().multiply(other.getBigDecimal()));
+        if (bothLong(this, other)) {
+            long a = longValue;
+            long b = other.longValue;
+            long r = a * b;
+            if (!multiplyOverflows(a, b, r)) {
+                return of(r);
+            }
+            return of(BigInteger.valueOf(a).multiply(BigInteger.valueOf(b)));
+        } else if (anyDouble(this, other)) {
+            return ofDouble(toDouble() * other.toDouble());
+        } else if (isInteger() && other.isInteger()) {
+            return of(getBigInteger().multiply(other.getBigInteger()));
         }
-        return new PyValue();
+        return UNDEFINED;
     }
 
+    // Same check as Math.multiplyExact, without the exception
+    private static boolean multiplyOverflows(long a, long b, long r) {
+        if (((Math.abs(a) | Math.abs(b)) >>> 31) == 0) {
+            return false;
+        }
+        return (b != 0 && r / b != a) || (a == Long.MIN_VALUE && b == -1);
+    }
+
+    /**
+     * True division, the result is always a float. Caller checks for division by zero.
+     */
     PyValue divide(PyValue other) {
-        if (isNumber() && other.isNumber()) {
-            return new PyValue(getBigDecimal().divide(other.getBigDecimal(), precision, BigDecimal.ROUND_HALF_UP));
+        if (bothLong(this, other) && Math.abs(longValue) < EXACT_DOUBLE_LIMIT
+                && Math.abs(other.longValue) < EXACT_DOUBLE_LIMIT) {
+            return of((double) longValue / (double) other.longValue);
+        } else if (anyDouble(this, other)) {
+            return ofDouble(toDouble() / other.toDouble());
+        } else if (isInteger() && other.isInteger()) {
+            double res = bigDivide(getBigInteger(), other.getBigInteger());
+            return Double.isInfinite(res) ? UNDEFINED : of(res);
         }
-        return new PyValue();
+        return UNDEFINED;
     }
 
+    /**
+     * Correctly rounded a / b. The quotient is computed with a couple of extra bits and a sticky bit
+     * for the remainder, so the single rounding in {@link BigInteger#doubleValue()} is exact.
+     */
+    private static double bigDivide(BigInteger a, BigInteger b) {
+        boolean negative = (a.signum() < 0) != (b.signum() < 0);
+        a = a.abs();
+        b = b.abs();
+        int shift = Long.SIZE - (a.bitLength() - b.bitLength());
+        if (shift > 0) {
+            a = a.shiftLeft(shift);
+        } else {
+            b = b.shiftLeft(-shift);
+        }
+        BigInteger[] res = a.divideAndRemainder(b);
+        BigInteger quotient = res[0].shiftLeft(1);
+        if (res[1].signum() != 0) {
+            quotient = quotient.setBit(0);
+        }
+        double d = Math.scalb(quotient.doubleValue(), -shift - 1);
+        return negative ? -d : d;
+    }
+
+    /**
+     * Floor division with Python semantics. Caller checks for division by zero.
+     */
     PyValue floordivide(PyValue other) {
-        if (isInteger() && other.isInteger()) {
-            BigInteger left = getBigInteger();
-            BigInteger right = other.getBigInteger();
-            BigInteger []res = left.divideAndRemainder(right);
-            if (left.compareTo(BigInteger.ZERO) * right.compareTo(BigInteger.ZERO) < 0) {
-                if (!res[1].equals(BigInteger.ZERO)) {
-                    res[0] = res[0].subtract(BigInteger.ONE);
-                }
+        if (bothLong(this, other)) {
+            if (longValue == Long.MIN_VALUE && other.longValue == -1) {
+                return negate();
             }
-            return new PyValue(res[0]);
-        } else if (isNumber() && other.isNumber()) {
-            BigDecimal left = getBigDecimal();
-            BigDecimal right = other.getBigDecimal();
-            BigDecimal []res = left.divideAndRemainder(right);
-            if (left.compareTo(BigDecimal.ZERO) * right.compareTo(BigDecimal.ZERO) < 0) {
-                if (!res[1].equals(BigDecimal.ZERO)) {
-                    res[0] = res[0].subtract(BigDecimal.ONE);
-                }
+            return of(Math.floorDiv(longValue, other.longValue));
+        } else if (anyDouble(this, other)) {
+            double a = toDouble();
+            double b = other.toDouble();
+            if (Double.isNaN(a) || Double.isNaN(b)) {
+                return UNDEFINED;
             }
-            return new PyValue(res[0]);
+            return ofDouble(floatFloorDiv(a, b));
+        } else if (isInteger() && other.isInteger()) {
+            BigInteger[] res = getBigInteger().divideAndRemainder(other.getBigInteger());
+            if (res[1].signum() != 0 && res[1].signum() != other.signum()) {
+                res[0] = res[0].subtract(BigInteger.ONE);
+            }
+            return of(res[0]);
         }
-        return new PyValue();
+        return UNDEFINED;
     }
 
+    /**
+     * Modulo with Python semantics, the result takes the sign of the divider. Caller checks for zero.
+     */
     PyValue mod(PyValue other) {
-        if (isInteger() && other.isInteger()) {
-            if (other.compareTo(PyValue.ZERO) < 0) {
-                return negate().mod(other.negate()).negate();
+        if (bothLong(this, other)) {
+            return of(Math.floorMod(longValue, other.longValue));
+        } else if (anyDouble(this, other)) {
+            double a = toDouble();
+            double b = other.toDouble();
+            if (Double.isNaN(a) || Double.isNaN(b)) {
+                return UNDEFINED;
             }
-            return new PyValue(((BigInteger) value).mod((BigInteger) other.value));
-        } else if (isNumber() && other.isNumber()) {
-            BigDecimal divisor = getBigDecimal();
-            BigDecimal divider = other.getBigDecimal();
-            if (divisor.compareTo(BigDecimal.ZERO) * divider.compareTo(BigDecimal.ZERO) < 0) {
-                return new PyValue(divisor.divideAndRemainder(divider)[1].add(divider));
+            return ofDouble(floatMod(a, b));
+        } else if (isInteger() && other.isInteger()) {
+            BigInteger divider = other.getBigInteger();
+            BigInteger res = getBigInteger().mod(divider.abs());
+            if (divider.signum() < 0 && res.signum() != 0) {
+                res = res.add(divider);
+            }
+            return of(res);
+        }
+        return UNDEFINED;
+    }
+
+    // Same steps as CPython's float_divmod, so results match bit for bit
+    private static double floatMod(double a, double b) {
+        double mod = a % b;
+        if (mod != 0.0) {
+            if ((b < 0) != (mod < 0)) {
+                mod += b;
+            }
+        } else {
+            mod = Math.copySign(0.0, b);
+        }
+        return mod;
+    }
+
+    private static double floatFloorDiv(double a, double b) {
+        double mod = a % b;
+        double div = (a - mod) / b;
+        if (mod != 0.0 && (b < 0) != (mod < 0)) {
+            div -= 1.0;
+        }
+        if (div != 0.0) {
+            double floorDiv = Math.floor(div);
+            if (div - floorDiv > 0.5) {
+                floorDiv += 1.0;
             }
-            return new PyValue(divisor.divideAndRemainder(divider)[1]);
+            return floorDiv;
         }
-        return new PyValue();
+        return Math.copySign(0.0, a / b);
     }
 
+    /**
+     * Caller checks for 0 raised to a negative power.
+     */
     PyValue pow(PyValue other) {
         if (isInteger() && other.isInteger()) {
-            return new PyValue(((BigInteger) value).pow(((BigInteger) other.value).intValueExact()));
-        } else if (isDouble() && other.isInteger()) {
-            return new PyValue(getBigDecimal().pow(((BigInteger) other.value).intValueExact()));
+            if (other.signum() < 0) {
+                return floatPow(toDouble(), other.toDouble());
+            }
+            int exponent = other.intValueOr(-1);
+            if (exponent < 0) {
+                return UNDEFINED;
+            }
+            if (type == Type.LONG) {
+                PyValue res = longPow(longValue, exponent);
+                if (res != null) {
+                    return res;
+                }
+            }
+            return of(getBigInteger().pow(exponent));
+        } else if (isNumber() && other.isNumber()) {
+            return floatPow(toDouble(), other.toDouble());
         }
-        return new PyValue();
+        return UNDEFINED;
     }
 
+    /**
+     * @return the power or null when it overflows a long
+     */
+    private static PyValue longPow(long base, int exponent) {
+        long result = 1;
+        while (true) {
+            if ((exponent & 1) != 0) {
+                long r = result * base;
+                if (multiplyOverflows(result, base, r)) {
+                    return null;
+                }
+                result = r;
+            }
+            exponent >>>= 1;
+            if (exponent == 0) {
+                return of(result);
+            }
+            if (base > 0xB504F333L || base < -0xB504F333L) {
+                return null;
+            }
+            base *= base;
+        }
+    }
+
+    private static PyValue floatPow(double base, double exponent) {
+        if (Double.isNaN(base) || Double.isNaN(exponent)) {
+            return UNDEFINED;
+        }
+        // C pow() and Java disagree only here
+        if (Math.abs(base) == 1.0 && Double.isInfinite(exponent)) {
+            return DOUBLE_ONE;
+        }
+        double res = Math.pow(base, exponent);
+        // negative base with a fractional exponent is complex, and finite operands overflowing raise in Python
+        if (Double.isNaN(res) || (Double.isInfinite(res) && !Double.isInfinite(base) && !Double.isInfinite(exponent))) {
+            return UNDEFINED;
+        }
+        return of(res);
+    }
+
+    /**
+     * Caller checks for negative shift amounts.
+     */
     PyValue shiftLeft(PyValue other) {
         if (isInteger() && other.isInteger()) {
-            return new PyValue(((BigInteger) value).shiftLeft(((BigInteger) other.value).intValueExact()));
+            if (signum() == 0) {
+                return ZERO;
+            }
+            int shift = other.intValueOr(-1);
+            if (shift < 0) {
+                return UNDEFINED;
+            }
+            if (type == Type.LONG && shift < Long.SIZE - 1) {
+                long r = longValue << shift;
+                if (r >> shift == longValue) {
+                    return of(r);
+                }
+            }
+            return of(getBigInteger().shiftLeft(shift));
         }
-        return new PyValue();
+        return UNDEFINED;
     }
 
+    /**
+     * Caller checks for negative shift amounts.
+     */
     PyValue shiftRight(PyValue other) {
         if (isInteger() && other.isInteger()) {
-            return new PyValue(((BigInteger) value).shiftRight(((BigInteger) other.value).intValueExact()));
+            int shift = other.intValueOr(Integer.MAX_VALUE);
+            if (type == Type.LONG) {
+                return of(longValue >> Math.min(shift, Long.SIZE - 1));
+            }
+            return of(getBigInteger().shiftRight(shift));
         }
-        return new PyValue();
+        return UNDEFINED;
     }
 
     PyValue xor(PyValue other) {
-        if (isInteger() && other.isInteger()) {
-            return new PyValue(((BigInteger) value).xor((BigInteger) other.value));
+        if (bothLong(this, other)) {
+            return of(longValue ^ other.longValue);
+        } else if (isInteger() && other.isInteger()) {
+            return of(getBigInteger().xor(other.getBigInteger()));
         }
-        return new PyValue();
+        return UNDEFINED;
     }
 
     PyValue and(PyValue other) {
-        if (isInteger() && other.isInteger()) {
-            return new PyValue(((BigInteger) value).and((BigInteger) other.value));
+        if (bothLong(this, other)) {
+            return of(longValue & other.longValue);
+        } else if (isInteger() && other.isInteger()) {
+            return of(getBigInteger().and(other.getBigInteger()));
         }
-        return new PyValue();
+        return UNDEFINED;
     }
 
     PyValue or(PyValue other) {
-        if (isInteger() && other.isInteger()) {
-            return new PyValue(((BigInteger) value).or((BigInteger) other.value));
+        if (bothLong(this, other)) {
+            return of(longValue | other.longValue);
+        } else if (isInteger() && other.isInteger()) {
+            return of(getBigInteger().or(other.getBigInteger()));
+        }
+        return UNDEFINED;
+    }
+
+    /**
+     * Writes a determined value in the format of {@link #read}, used to store values in indices.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeByte(type.ordinal());
+        switch (type) {
+            case LONG:
+                out.writeLong(longValue);
+                break;
+            case BIG_INTEGER:
+                byte[] bytes = ((BigInteger) value).toByteArray();
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                break;
+            case DOUBLE:
+                out.writeDouble(doubleValue);
+                break;
+            case STR:
+            case BYTES:
+                String s = ((Text) value).flat();
+                out.writeInt(s.length());
+                out.writeChars(s);
+                break;
+            case TUPLE:
+                PyValue[] items = ((Tuple) value).items;
+                out.writeInt(items.length);
+                for (PyValue item : items) {
+                    item.write(out);
+                }
+                break;
+            case NONE:
+                break;
+            default:
+                throw new IllegalStateException("Cannot write " + type + " value");
+        }
+    }
+
+    static PyValue read(DataInput in) throws IOException {
+        Type type = Type.values()[in.readByte()];
+        switch (type) {
+            case LONG:
+                return of(in.readLong());
+            case BIG_INTEGER:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return of(new BigInteger(bytes));
+            case DOUBLE:
+                return of(in.readDouble());
+            case STR:
+            case BYTES:
+                char[] chars = new char[in.readInt()];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = in.readChar();
+                }
+                String s = new String(chars);
+                return type == Type.STR ? ofStr(s) : ofBytes(s);
+            case TUPLE:
+                int length = in.readInt();
+                PyValue tuple = EMPTY_TUPLE;
+                for (int i = 0; i < length; i++) {
+                    tuple = tuple.append(read(in));
+                }
+                return tuple;
+            case NONE:
+                return NONE;
+            default:
+                throw new IOException("Cannot read " + type + " value");
+        }
+    }
+
+    /**
+     * Contents of a str or bytes value, bytes are stored one char per byte. Short literals are interned.
+     * A concatenation keeps its parts and builds its string only when characters are compared;
+     * its length and hash, the same as of the {@code String}, are known without that.
+     */
+    private static final class Text {
+        private static final int MAX_INTERNED_LENGTH = 64;
+
+        private final int length;
+        private final int hash;
+        private final Text left;
+        private final Text right;
+        /** Null until a concatenation is flattened, racy but always the same string */
+        private String flat;
+
+        private Text(String s) {
+            this.length = s.length();
+            this.hash = s.hashCode();
+            this.left = null;
+            this.right = null;
+            this.flat = s.length() <= MAX_INTERNED_LENGTH ? s.intern() : s;
+        }
+
+        private Text(Text left, Text right) {
+            this.length = left.length + right.length;
+            // hash(a + b) = hash(a) * 31^len(b) + hash(b), in int arithmetic as in String.hashCode()
+            this.hash = left.hash * pow31(right.length) + right.hash;
+            this.left = left;
+            this.right = right;
+        }
+
+        private static Text concat(Text left, Text right) {
+            if (left.length == 0) {
+                return right;
+            } else if (right.length == 0) {
+                return left;
+            }
+            return new Text(left, right);
+        }
+
+        private static int pow31(int exponent) {
+            int result = 1;
+            int base = 31;
+            while (exponent != 0) {
+                if ((exponent & 1) != 0) {
+                    result *= base;
+                }
+                base *= base;
+                exponent >>>= 1;
+            }
+            return result;
+        }
+
+        /**
+         * Walks the parts with an explicit stack, concatenations of names can be as deep as the file is long.
+         */
+        private String flat() {
+            String s = flat;
+            if (s != null) {
+                return s;
+            }
+            StringBuilder builder = new StringBuilder(length);
+            Deque<Text> parts = new ArrayDeque<>();
+            parts.push(this);
+            while (!parts.isEmpty()) {
+                Text part = parts.pop();
+                if (part.flat != null) {
+                    builder.append(part.flat);
+                } else {
+                    parts.push(part.right);
+                    parts.push(part.left);
+                }
+            }
+            s = builder.toString();
+            flat = s;
+            return s;
+        }
+
+        private boolean contains(Text other) {
+            return other.length <= length && flat().contains(other.flat());
+        }
+
+        private int compareCodePoints(Text other) {
+            String a = flat();
+            String b = other.flat();
+            int i = 0;
+            while (i < a.length() && i < b.length()) {
+                int ca = a.codePointAt(i);
+                int cb = b.codePointAt(i);
+                if (ca != cb) {
+                    return Integer.compare(ca, cb);
+                }
+                i += Character.charCount(ca);
+            }
+            return Integer.compare(a.length() - i, b.length() - i);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            } else if (!(o instanceof Text)) {
+                return false;
+            }
+            Text other = (Text) o;
+            return length == other.length && hash == other.hash && flat().equals(other.flat());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Items of a tuple with its nesting depth, 1 for a tuple without tuples.
+     */
+    private static final class Tuple {
+        private final PyValue[] items;
+        private final int depth;
+        private final int hash;
+
+        private Tuple(PyValue[] items, int depth) {
+            this.items = items;
+            this.depth = depth;
+            this.hash = Arrays.hashCode(items);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o instanceof Tuple && hash == ((Tuple) o).hash && Arrays.equals(items, ((Tuple) o).items);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
         }
-        return new PyValue();
     }
 }
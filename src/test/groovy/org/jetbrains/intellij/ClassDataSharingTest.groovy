@@ -0,0 +1,109 @@
+package org.jetbrains.intellij
+
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class ClassDataSharingTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    @Test
+    void 'java version from release file'() {
+        assert ClassDataSharing.javaVersion(createJava('1.8.0_152')) == 8
+        assert ClassDataSharing.javaVersion(createJava('11.0.2')) == 11
+        assert ClassDataSharing.javaVersion(createJava('17')) == 17
+        assert ClassDataSharing.javaVersion(new File(temporaryFolder.root, 'missing/bin/java').absolutePath) == 0
+    }
+
+    @Test
+    void 'java version of a jre inside a jdk'() {
+        def jdk = temporaryFolder.newFolder('jdk')
+        new File(jdk, 'release').text = 'JAVA_VERSION="1.8.0_152"\n'
+        def java = new File(jdk, 'jre/bin/java')
+        java.parentFile.mkdirs()
+        java.createNewFile()
+        assert ClassDataSharing.javaVersion(java.absolutePath) == 8
+    }
+
+    @Test
+    void 'no arguments for java 8'() {
+        def sharing = createSharing(createJava('1.8.0_152'))
+        assert !sharing.supported
+        assert sharing.jvmArgs() == []
+    }
+
+    @Test
+    void 'class list for java 11'() {
+        def args = createSharing(createJava('11.0.2')).jvmArgs()
+        assert args.size() == 1
+        assert args[0].startsWith('-XX:DumpLoadedClassList=')
+    }
+
+    @Test
+    void 'dynamic archive is created and reused'() {
+        def sharing = createSharing(createJava('13.0.1'))
+        def args = sharing.jvmArgs()
+        assert args == ["-XX:ArchiveClassesAtExit=$sharing.archiveFile.absolutePath".toString()]
+
+        sharing.archiveFile.text = 'archive'
+        assert sharing.jvmArgs() == ["-XX:SharedArchiveFile=$sharing.archiveFile.absolutePath".toString(), '-Xshare:auto']
+    }
+
+    @Test
+    void 'dynamic archive missing after a run is not tried again'() {
+        def sharing = createSharing(createJava('13.0.1'))
+        assert sharing.jvmArgs()[0].startsWith('-XX:ArchiveClassesAtExit=')
+        sharing.afterRun(true)
+        assert sharing.jvmArgs() == []
+    }
+
+    @Test
+    void 'dynamic archive is tried again after an abnormal exit'() {
+        def sharing = createSharing(createJava('13.0.1'))
+        sharing.jvmArgs()
+        sharing.afterRun(false)
+        assert sharing.jvmArgs()[0].startsWith('-XX:ArchiveClassesAtExit=')
+    }
+
+    @Test
+    void 'changed classpath gets a new archive and removes the old one'() {
+        def java = createJava('13.0.1')
+        def sharing = createSharing(java)
+        sharing.jvmArgs()
+        sharing.archiveFile.text = 'archive'
+
+        def jar = new File(temporaryFolder.root, 'lib.jar')
+        jar.text = 'changed'
+        def changed = createSharing(java)
+        assert changed.archiveFile != sharing.archiveFile
+        changed.jvmArgs()
+        assert !sharing.archiveFile.exists()
+    }
+
+    @Test
+    void 'archive is keyed by content of the classpath'() {
+        def java = createJava('13.0.1')
+        def sharing = createSharing(java)
+        def jar = new File(temporaryFolder.root, 'lib.jar')
+        jar.lastModified = jar.lastModified() - 60000
+        assert createSharing(java).archiveFile == sharing.archiveFile
+    }
+
+    private String createJava(String version) {
+        def home = temporaryFolder.newFolder()
+        new File(home, 'release').text = "JAVA_VERSION=\"$version\"\n"
+        def java = new File(home, 'bin/java')
+        java.parentFile.mkdirs()
+        java.createNewFile()
+        return java.absolutePath
+    }
+
+    private ClassDataSharing createSharing(String java) {
+        def jar = new File(temporaryFolder.root, 'lib.jar')
+        if (!jar.exists()) {
+            jar.text = 'jar'
+        }
+        return new ClassDataSharing(new File(temporaryFolder.root, 'cds'), java, 'IC-173.3727', [jar])
+    }
+}
@@ -0,0 +1,87 @@
+package org.jetbrains.intellij
+
+import org.jetbrains.intellij.dependency.DistributionExtractor
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+class DistributionExtractorTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    @Test
+    void 'extracts all entries'() {
+        def zip = createZip(['build.txt': 'IC-172.1', 'lib/a.jar': 'a', 'lib/b.jar': 'b', 'bin/idea.sh': 'sh'])
+        def target = new File(temporaryFolder.root, 'ideaIC')
+        def extractor = new DistributionExtractor(zip, target)
+
+        assert !extractor.upToDate
+        extractor.extract()
+        assert new File(target, 'build.txt').text == 'IC-172.1'
+        assert new File(target, 'lib/b.jar').text == 'b'
+        assert new File(target, 'bin/idea.sh').text == 'sh'
+        assert !new File(target, 'markerFile.progress').exists()
+        assert new DistributionExtractor(zip, target).upToDate
+    }
+
+    @Test
+    void 'touched archive with the same content is up to date'() {
+        def zip = createZip(['build.txt': 'IC-172.1'])
+        def target = new File(temporaryFolder.root, 'ideaIC')
+        new DistributionExtractor(zip, target).extract()
+
+        zip.setLastModified(zip.lastModified() + 10000)
+        assert new DistributionExtractor(zip, target).upToDate
+    }
+
+    @Test
+    void 'changed archive is extracted again'() {
+        def zip = createZip(['build.txt': 'IC-172.1', 'lib/old.jar': 'old'])
+        def target = new File(temporaryFolder.root, 'ideaIC')
+        new DistributionExtractor(zip, target).extract()
+
+        zip.delete()
+        zip = createZip(['build.txt': 'IC-172.22', 'lib/new.jar': 'new'])
+        def extractor = new DistributionExtractor(zip, target)
+        assert !extractor.upToDate
+        extractor.extract()
+        assert new File(target, 'build.txt').text == 'IC-172.22'
+        assert !new File(target, 'lib/old.jar').exists()
+    }
+
+    @Test
+    void 'interrupted extraction resumes'() {
+        def zip = createZip(['build.txt': 'IC-172.1', 'lib/a.jar': 'a'])
+        def target = new File(temporaryFolder.root, 'ideaIC')
+        new DistributionExtractor(zip, target).extract()
+
+        // Pretend the extraction stopped after the first chunk, which extracted build.txt
+        def marker = new File(target, 'markerFile')
+        marker.text = marker.text.replace('complete=true', 'complete=false')
+        new File(target, 'markerFile.progress').text = '0\n'
+        new File(target, 'lib/a.jar').delete()
+        new File(target, 'build.txt').text = 'kept'
+
+        def extractor = new DistributionExtractor(zip, target)
+        assert !extractor.upToDate
+        extractor.extract()
+        assert new File(target, 'lib/a.jar').text == 'a'
+        assert new File(target, 'build.txt').text == 'kept'
+        assert extractor.upToDate
+    }
+
+    private File createZip(Map<String, String> entries) {
+        def file = new File(temporaryFolder.root, 'ideaIC.zip')
+        new ZipOutputStream(new FileOutputStream(file)).withStream { stream ->
+            entries.each { name, text ->
+                stream.putNextEntry(new ZipEntry(name))
+                stream.write(text.bytes)
+                stream.closeEntry()
+            }
+        }
+        return file
+    }
+}
@@ -19,6 +19,18 @@ class IntelliJPluginSpec extends IntelliJPluginSpecBase {
                                              IntelliJPlugin.VERIFY_PLUGIN_TASK_NAME]
     }
 
+    def 'do not resolve IDE for tasks that do not need it'() {
+        given:
+        buildFile << "intellij { version = '0.0.0-not-existing' }\n"
+
+        when:
+        def result = build('help', '--info')
+
+        then:
+        !result.output.contains('Resolving IntelliJ IDEA dependency')
+        result.output.contains("IntelliJ plugin: configuration after evaluation for root project 'projectName' took")
+    }
+
     def 'instrument code with nullability annotations'() {
         given:
         buildFile << 'intellij { instrumentCode = true }'
@@ -31,6 +43,39 @@ class IntelliJPluginSpec extends IntelliJPluginSpecBase {
         result.output.contains('Added @NotNull assertions to 1 files')
     }
 
+    def 'instrument only changed classes'() {
+        given:
+        buildFile << 'intellij { instrumentCode = true }'
+        writeJavaFile()
+        file('src/main/java/Other.java') << 'class Other { void run(@org.jetbrains.annotations.NotNull String s) {} }'
+        build('buildSourceSet')
+
+        when:
+        file('src/main/java/Other.java').text = 'class Other { void run(@org.jetbrains.annotations.NotNull Object o) {} }'
+        def result = build('buildSourceSet', '--info')
+
+        then:
+        result.output.contains('Instrumented 1 classes, skipped 1 unchanged classes')
+        result.output.contains('Added @NotNull assertions to 1 files')
+    }
+
+    def 'removed class is removed from instrumented classes'() {
+        given:
+        buildFile << 'intellij { instrumentCode = true }'
+        writeJavaFile()
+        file('src/main/java/Other.java') << 'class Other { void run(@org.jetbrains.annotations.NotNull String s) {} }'
+        build('buildSourceSet')
+
+        when:
+        new File(dir.root, 'src/main/java/Other.java').delete()
+        def result = build('buildSourceSet', '--info')
+
+        then:
+        result.output.contains('Instrumented 0 classes, skipped 1 unchanged classes')
+        new File(buildDirectory, 'classes/main-instrumented/App.class').exists()
+        !new File(buildDirectory, 'classes/main-instrumented/Other.class').exists()
+    }
+
     def 'instrument tests with nullability annotations'() {
         given:
         writeTestFile()
@@ -65,19 +110,7 @@ class IntelliJPluginSpec extends IntelliJPluginSpecBase {
     def 'instrument kotlin forms'() {
         given:
         buildFile << 'intellij { instrumentCode = true }'
-        file('src/main/kotlin/pack/AppKt.form') << """<?xml version="1.0" encoding="UTF-8"?>
-<form xmlns="http://www.intellij.com/uidesigner/form/" version="1" bind-to-class="pack.AppKt">
-  <grid id="27dc6" binding="panel" layout-manager="GridLayoutManager" row-count="1" column-count="1" same-size-horizontally="false" same-size-vertically="false" hgap="-1" vgap="-1">
-    <margin top="0" left="0" bottom="0" right="0"/>
-    <constraints>
-      <xy x="20" y="20" width="500" height="400"/>
-    </constraints>
-    <properties/>
-    <border type="none"/>
-    <children/>
-  </grid>
-</form>
-"""
+        writeKotlinUIForm()
         writeKotlinUIFile()
 
         when:
@@ -87,6 +120,38 @@ class IntelliJPluginSpec extends IntelliJPluginSpecBase {
         result.output.contains('Compiling forms and instrumenting code')
     }
 
+    def 'changed form is compiled again'() {
+        given:
+        buildFile << 'intellij { instrumentCode = true }'
+        writeKotlinUIForm()
+        writeKotlinUIFile()
+        build('buildSourceSet')
+
+        when:
+        file('src/main/kotlin/pack/AppKt.form').text = kotlinUIForm('<xy x="20" y="20" width="600" height="400"/>')
+        def result = build('buildSourceSet', '--info')
+
+        then:
+        result.output.contains('Compiling forms and instrumenting code')
+        result.output.contains('Instrumented 1 classes, skipped 0 unchanged classes')
+    }
+
+    def 'removed form is no longer compiled into its class'() {
+        given:
+        buildFile << 'intellij { instrumentCode = true }'
+        writeKotlinUIForm()
+        writeKotlinUIFile()
+        build('buildSourceSet')
+
+        when:
+        new File(dir.root, 'src/main/kotlin/pack/AppKt.form').delete()
+        def result = build('buildSourceSet', '--info')
+
+        then:
+        result.output.contains('Instrumented 1 classes, skipped 0 unchanged classes')
+        !new File(buildDirectory, 'classes/main-instrumented/pack/AppKt.class').getText('ISO-8859-1').contains('$$$setupUI$$$')
+    }
+
     def 'instrumentation does not invalidate compile tasks'() {
         given:
         buildFile << 'intellij { instrumentCode = true }'
@@ -196,6 +261,18 @@ class IntelliJPluginSpec extends IntelliJPluginSpecBase {
         assert runtimeClasspath.contains('intellij-postfix.jar')
     }
 
+    def 'register IDE dependency after evaluation if Gradle < 2.12'() {
+        given:
+        writeJavaFile()
+        buildFile << 'task printIdeaDependencies { doLast { println \'idea: \' + configurations.idea.dependencies*.name } }\n'
+
+        when:
+        def result = build('2.11', false, 'printIdeaDependencies')
+
+        then:
+        result.output.readLines().find { it.startsWith('idea:') } == 'idea: [ideaIC]'
+    }
+
     def 'resolve plugins in Gradle >= 4.3'() {
         given:
         writeTestFile()
@@ -321,4 +398,24 @@ intellij {
             result
         }
     }
+
+    private void writeKotlinUIForm() {
+        file('src/main/kotlin/pack/AppKt.form') << kotlinUIForm('<xy x="20" y="20" width="500" height="400"/>')
+    }
+
+    private static String kotlinUIForm(String constraints) {
+        return """<?xml version="1.0" encoding="UTF-8"?>
+<form xmlns="http://www.intellij.com/uidesigner/form/" version="1" bind-to-class="pack.AppKt">
+  <grid id="27dc6" binding="panel" layout-manager="GridLayoutManager" row-count="1" column-count="1" same-size-horizontally="false" same-size-vertically="false" hgap="-1" vgap="-1">
+    <margin top="0" left="0" bottom="0" right="0"/>
+    <constraints>
+      $constraints
+    </constraints>
+    <properties/>
+    <border type="none"/>
+    <children/>
+  </grid>
+</form>
+"""
+    }
 }
@@ -0,0 +1,133 @@
+package org.jetbrains.intellij
+
+import groovy.json.JsonSlurper
+import org.gradle.tooling.BuildException
+import org.jetbrains.intellij.dependency.PluginDependencyManager
+import org.jetbrains.intellij.dependency.PluginMetadataIndex
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+class LocalPluginRepositorySpec extends Specification {
+    @Rule
+    final TemporaryFolder dir = new TemporaryFolder()
+
+    File repository
+    String gradleHome
+
+    def setup() {
+        repository = dir.newFolder('repository')
+        gradleHome = dir.newFolder('gradleHome').absolutePath
+        writeZip(new File(repository, 'org.example.jar/1.0/example.jar'), ['META-INF/plugin.xml': pluginXml('org.example.jar', '1.0')])
+        writeZip(new File(repository, 'org.example.zip/2.0/example.zip'), ['example/lib/example.jar': libJar()])
+    }
+
+    def 'resolve plugins concurrently in notation order'() {
+        given:
+        def manager = new PluginDependencyManager(gradleHome, null, repository.toURI().toString())
+
+        when:
+        def plugins = manager.resolve(['org.example.zip:2.0', 'org.example.jar:1.0', 'org.example.zip:2.0'])
+
+        then:
+        plugins.keySet() as List == ['org.example.zip:2.0', 'org.example.jar:1.0']
+        plugins['org.example.jar:1.0'].id == 'org.example.jar'
+        plugins['org.example.jar:1.0'].artifact.name == 'example.jar'
+        plugins['org.example.zip:2.0'].id == 'org.example.zip'
+        plugins['org.example.zip:2.0'].jarFiles*.name == ['example.jar']
+    }
+
+    def 'notations differing in channel share the cached plugin'() {
+        given:
+        writeZip(new File(repository, 'eap/org.example.zip/2.0/example.zip'), ['example/lib/example.jar': libJar()])
+        def manager = new PluginDependencyManager(gradleHome, null, repository.toURI().toString())
+
+        when:
+        def plugins = manager.resolve(['org.example.zip:2.0', 'org.example.zip:2.0@eap'])
+
+        then:
+        plugins['org.example.zip:2.0'].artifact == plugins['org.example.zip:2.0@eap'].artifact
+        plugins['org.example.zip:2.0'].jarFiles*.name == ['example.jar']
+        plugins['org.example.zip:2.0@eap'].jarFiles*.name == ['example.jar']
+        plugins['org.example.zip:2.0'].channel == null
+        plugins['org.example.zip:2.0@eap'].channel == 'eap'
+    }
+
+    def 'resolved metadata is indexed'() {
+        given:
+        def plugins = new PluginDependencyManager(gradleHome, null, repository.toURI().toString())
+                .resolve(['org.example.jar:1.0', 'org.example.zip:2.0'])
+        def manager = new PluginDependencyManager(gradleHome, null, repository.toURI().toString())
+
+        when:
+        def index = new JsonSlurper().parse(new File(manager.cacheDirectoryPath, PluginMetadataIndex.INDEX_FILE_NAME)) as Map
+        def indexedPlugins = manager.resolve(['org.example.jar:1.0', 'org.example.zip:2.0'])
+
+        then:
+        index.values()*.id as Set == ['org.example.jar', 'org.example.zip'] as Set
+        index.values()*.builtin as Set == [false] as Set
+        indexedPlugins == plugins
+    }
+
+    def 'changed artifact is parsed again'() {
+        given:
+        def manager = new PluginDependencyManager(gradleHome, null, repository.toURI().toString())
+        def plugin = manager.resolve('org.example.jar', '1.0', null)
+
+        when:
+        writeZip(plugin.artifact, ['META-INF/plugin.xml': pluginXml('org.example.renamed', '1.0')])
+        def changed = new PluginDependencyManager(gradleHome, null, repository.toURI().toString())
+                .resolve('org.example.jar', '1.0', null)
+
+        then:
+        changed.id == 'org.example.renamed'
+    }
+
+    def 'missing plugin is not resolved'() {
+        given:
+        def manager = new PluginDependencyManager(gradleHome, null, repository.toURI().toString())
+
+        when:
+        manager.resolve(['org.example.missing:1.0'])
+
+        then:
+        thrown(BuildException)
+    }
+
+    private static String pluginXml(String id, String version) {
+        """\
+            <idea-plugin>
+              <id>$id</id>
+              <name>$id</name>
+              <version>$version</version>
+              <vendor>JetBrains</vendor>
+              <description>Test plugin of the local plugin repository, the description is long enough</description>
+              <idea-version since-build="141.1"/>
+            </idea-plugin>
+        """.stripIndent()
+    }
+
+    private static byte[] libJar() {
+        def libJar = new ByteArrayOutputStream()
+        writeZip(libJar, ['META-INF/plugin.xml': pluginXml('org.example.zip', '2.0')])
+        return libJar.toByteArray()
+    }
+
+    private static void writeZip(File file, Map<String, Object> entries) {
+        file.parentFile.mkdirs()
+        writeZip(new FileOutputStream(file), entries)
+    }
+
+    private static void writeZip(OutputStream output, Map<String, Object> entries) {
+        new ZipOutputStream(output).withStream { stream ->
+            entries.each { name, content ->
+                stream.putNextEntry(new ZipEntry(name))
+                stream.write(content instanceof byte[] ? content as byte[] : content.toString().bytes)
+                stream.closeEntry()
+            }
+        }
+    }
+}
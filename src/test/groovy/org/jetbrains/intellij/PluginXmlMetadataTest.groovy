@@ -0,0 +1,47 @@
+package org.jetbrains.intellij
+
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.xml.sax.SAXParseException
+
+class PluginXmlMetadataTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    @Test
+    void 'reads plugin id'() {
+        def metadata = PluginXmlMetadata.of(createPluginXml('<idea-plugin><id>com.example</id></idea-plugin>'))
+        assert metadata.ideaPlugin
+        assert metadata.ids == ['com.example']
+    }
+
+    @Test
+    void 'unchanged file is not parsed again'() {
+        def pluginXml = createPluginXml('<idea-plugin><id>com.example</id></idea-plugin>')
+        def metadata = PluginXmlMetadata.of(pluginXml)
+        pluginXml.setLastModified(pluginXml.lastModified() + 10000)
+        assert PluginXmlMetadata.of(pluginXml).is(metadata)
+    }
+
+    @Test
+    void 'changed file is parsed again'() {
+        def pluginXml = createPluginXml('<idea-plugin><id>com.example</id></idea-plugin>')
+        PluginXmlMetadata.of(pluginXml)
+        pluginXml.text = '<application/>'
+        def metadata = PluginXmlMetadata.of(pluginXml)
+        assert !metadata.ideaPlugin
+        assert metadata.ids.empty
+    }
+
+    @Test(expected = SAXParseException)
+    void 'malformed file'() {
+        PluginXmlMetadata.of(createPluginXml('<idea-plugin>'))
+    }
+
+    private File createPluginXml(String text) {
+        def file = temporaryFolder.newFile()
+        file.text = text
+        return file
+    }
+}
@@ -1,5 +1,8 @@
 package org.jetbrains.intellij
 
+import spock.lang.IgnoreIf
+
+import java.nio.file.Files
 import java.util.zip.ZipFile
 
 class PrepareSandboxTaskSpec extends IntelliJPluginSpecBase {
@@ -174,6 +177,131 @@ class PrepareSandboxTaskSpec extends IntelliJPluginSpecBase {
                                   '/config/options/updates.xml'] as Set
     }
 
+    @IgnoreIf({ System.properties['os.name'].toLowerCase().contains('windows') })
+    def 'prepare sandbox with symlinked external plugin'() {
+        given:
+        writeJavaFile()
+        pluginXml << '<idea-plugin version="2"></idea-plugin>'
+        buildFile << """\
+            intellij {
+                plugins = ['org.jetbrains.postfixCompletion:0.8-beta']
+                pluginName = 'myPluginName'
+                sandboxLinkMode = 'symlink'
+            }
+            """.stripIndent()
+        when:
+        build(IntelliJPlugin.PREPARE_SANDBOX_TASK_NAME)
+
+        then:
+        collectPaths(sandbox) == ['/plugins/intellij-postfix.jar',
+                                  '/plugins/myPluginName/lib/projectName.jar',
+                                  '/config/options/updates.xml'] as Set
+        Files.isSymbolicLink(new File(sandbox, 'plugins/intellij-postfix.jar').toPath())
+        !Files.isSymbolicLink(new File(sandbox, 'plugins/myPluginName/lib/projectName.jar').toPath())
+    }
+
+    @IgnoreIf({ System.properties['os.name'].toLowerCase().contains('windows') })
+    def 'switching back to copying replaces links'() {
+        given:
+        writeJavaFile()
+        pluginXml << '<idea-plugin version="2"></idea-plugin>'
+        buildFile << """\
+            intellij {
+                plugins = ['org.jetbrains.postfixCompletion:0.8-beta']
+                pluginName = 'myPluginName'
+                sandboxLinkMode = 'symlink'
+            }
+            """.stripIndent()
+        build(IntelliJPlugin.PREPARE_SANDBOX_TASK_NAME)
+
+        when:
+        buildFile << "intellij.sandboxLinkMode = 'copy'\n"
+        build(IntelliJPlugin.PREPARE_SANDBOX_TASK_NAME)
+
+        then:
+        !Files.isSymbolicLink(new File(sandbox, 'plugins/intellij-postfix.jar').toPath())
+        new File(sandbox, 'plugins/intellij-postfix.jar').isFile()
+    }
+
+    @IgnoreIf({ System.properties['os.name'].toLowerCase().contains('windows') })
+    def 'prepare sandbox with hard-linked external plugin'() {
+        given:
+        writeJavaFile()
+        pluginXml << '<idea-plugin version="2"></idea-plugin>'
+        buildFile << """\
+            intellij {
+                plugins = ['org.jetbrains.postfixCompletion:0.8-beta']
+                pluginName = 'myPluginName'
+                sandboxLinkMode = 'hardlink'
+            }
+            """.stripIndent()
+        when:
+        build(IntelliJPlugin.PREPARE_SANDBOX_TASK_NAME)
+
+        then:
+        collectPaths(sandbox) == ['/plugins/intellij-postfix.jar',
+                                  '/plugins/myPluginName/lib/projectName.jar',
+                                  '/config/options/updates.xml'] as Set
+        !Files.isSymbolicLink(new File(sandbox, 'plugins/intellij-postfix.jar').toPath())
+        linkCount(new File(sandbox, 'plugins/intellij-postfix.jar')) > 1
+        linkCount(new File(sandbox, 'plugins/myPluginName/lib/projectName.jar')) == 1
+    }
+
+    @IgnoreIf({ System.properties['os.name'].toLowerCase().contains('windows') })
+    def 'switching back to copying replaces hard links'() {
+        given:
+        writeJavaFile()
+        pluginXml << '<idea-plugin version="2"></idea-plugin>'
+        buildFile << """\
+            intellij {
+                plugins = ['org.jetbrains.postfixCompletion:0.8-beta']
+                pluginName = 'myPluginName'
+                sandboxLinkMode = 'hardlink'
+            }
+            """.stripIndent()
+        build(IntelliJPlugin.PREPARE_SANDBOX_TASK_NAME)
+
+        when:
+        buildFile << "intellij.sandboxLinkMode = 'copy'\n"
+        build(IntelliJPlugin.PREPARE_SANDBOX_TASK_NAME)
+
+        then:
+        new File(sandbox, 'plugins/intellij-postfix.jar').isFile()
+        linkCount(new File(sandbox, 'plugins/intellij-postfix.jar')) == 1
+    }
+
+    def 'linked sandbox copies build files only if their content changed'() {
+        given:
+        pluginXml << '<idea-plugin version="2"></idea-plugin>'
+        file('plugin.jar').text = 'plugin'
+        buildFile << """\
+            intellij {
+                pluginName = 'myPluginName'
+                sandboxLinkMode = 'hardlink'
+            }
+            prepareSandbox.pluginJar = file('plugin.jar')
+            """.stripIndent()
+        build(IntelliJPlugin.PREPARE_SANDBOX_TASK_NAME)
+        def sandboxJar = new File(sandbox, 'plugins/myPluginName/lib/plugin.jar')
+        def copiedAt = 1000000000000L
+        sandboxJar.lastModified = copiedAt
+
+        when:
+        file('plugin.jar').lastModified = System.currentTimeMillis() + 60000
+        build('--rerun-tasks', IntelliJPlugin.PREPARE_SANDBOX_TASK_NAME)
+
+        then:
+        sandboxJar.text == 'plugin'
+        sandboxJar.lastModified() == copiedAt
+
+        when:
+        file('plugin.jar').text = 'changed'
+        build(IntelliJPlugin.PREPARE_SANDBOX_TASK_NAME)
+
+        then:
+        sandboxJar.text == 'changed'
+    }
+
     def 'prepare sandbox with external zip-type plugin'() {
         given:
         writeJavaFile()
@@ -409,6 +537,10 @@ class PrepareSandboxTaskSpec extends IntelliJPluginSpecBase {
                                   '/config/options/updates.xml'] as Set
     }
 
+    private static int linkCount(File file) {
+        return Files.getAttribute(file.toPath(), 'unix:nlink') as int
+    }
+
     private File getSandbox() {
         return new File(buildDirectory, IntelliJPlugin.DEFAULT_SANDBOX)
     }
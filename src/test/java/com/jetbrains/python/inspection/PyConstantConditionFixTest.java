@@ -0,0 +1,167 @@
+package com.jetbrains.python.inspection;
+
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Before/after tests of the quick-fixes of constant conditions. The caret marks the condition to fix.
+ * Bodies moved to another block rely on the postponed formatting for their indentation.
+ */
+public class PyConstantConditionFixTest extends LightPlatformCodeInsightFixtureTestCase {
+    private static final String REMOVE_BRANCHES = "Remove the branches which are never reached";
+    private static final String REMOVE_BRANCH = "Remove the branch which is never reached";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myFixture.enableInspections(new PyConstantExpression());
+    }
+
+    public void testIfAlwaysTrue() {
+        doTest(REMOVE_BRANCHES,
+               "def f(x):\n" +
+               "    if <caret>1 < 2:\n" +
+               "        x = 2\n" +
+               "    elif x:\n" +
+               "        x = 3\n" +
+               "    else:\n" +
+               "        x = 4\n" +
+               "    return x\n",
+               "def f(x):\n" +
+               "    x = 2\n" +
+               "    return x\n");
+    }
+
+    public void testIfAlwaysFalse() {
+        doTest(REMOVE_BRANCH,
+               "def f(x):\n" +
+               "    if <caret>1 > 2:\n" +
+               "        x = 2\n" +
+               "    return x\n",
+               "def f(x):\n" +
+               "    return x\n");
+    }
+
+    public void testIfAlwaysFalseWithElif() {
+        doTest(REMOVE_BRANCH,
+               "def f(x):\n" +
+               "    if <caret>1 > 2:\n" +
+               "        x = 2\n" +
+               "    elif x:\n" +
+               "        x = 3\n" +
+               "    return x\n",
+               "def f(x):\n" +
+               "    if x:\n" +
+               "        x = 3\n" +
+               "    return x\n");
+    }
+
+    public void testElifAlwaysFalseInTheMiddle() {
+        doTest(REMOVE_BRANCH,
+               "def f(x, y):\n" +
+               "    if x:\n" +
+               "        x = 2\n" +
+               "    elif <caret>1 > 2:\n" +
+               "        x = 3\n" +
+               "    elif y:\n" +
+               "        x = 4\n" +
+               "    return x\n",
+               "def f(x, y):\n" +
+               "    if x:\n" +
+               "        x = 2\n" +
+               "    elif y:\n" +
+               "        x = 4\n" +
+               "    return x\n");
+    }
+
+    public void testElifAlwaysTrueInTheMiddle() {
+        doTest(REMOVE_BRANCHES,
+               "def f(x, y):\n" +
+               "    if x:\n" +
+               "        x = 2\n" +
+               "    elif <caret>1 < 2:\n" +
+               "        x = 3\n" +
+               "    elif y:\n" +
+               "        x = 4\n" +
+               "    else:\n" +
+               "        x = 5\n" +
+               "    return x\n",
+               "def f(x, y):\n" +
+               "    if x:\n" +
+               "        x = 2\n" +
+               "    else:\n" +
+               "        x = 3\n" +
+               "    return x\n");
+    }
+
+    public void testElsePromoted() {
+        doTest(REMOVE_BRANCH,
+               "def f(x):\n" +
+               "    if <caret>1 > 2:\n" +
+               "        x = 2\n" +
+               "    else:\n" +
+               "        x = 3\n" +
+               "        x += 1\n" +
+               "    return x\n",
+               "def f(x):\n" +
+               "    x = 3\n" +
+               "    x += 1\n" +
+               "    return x\n");
+    }
+
+    public void testNestedBody() {
+        doTest(REMOVE_BRANCHES,
+               "def f(x):\n" +
+               "    if x:\n" +
+               "        if <caret>2 > 1:\n" +
+               "            a = 1\n" +
+               "            for i in range(a):\n" +
+               "                a += i\n" +
+               "        else:\n" +
+               "            a = 3\n" +
+               "        return a\n",
+               "def f(x):\n" +
+               "    if x:\n" +
+               "        a = 1\n" +
+               "        for i in range(a):\n" +
+               "            a += i\n" +
+               "        return a\n");
+    }
+
+    public void testOnlyStatementOfBlockLeavesPass() {
+        doTest(REMOVE_BRANCH,
+               "def f():\n" +
+               "    if <caret>1 > 2:\n" +
+               "        return 1\n",
+               "def f():\n" +
+               "    pass\n");
+    }
+
+    public void testSimplifyCondition() {
+        doTest("Replace the condition with True",
+               "def f(x):\n" +
+               "    if <caret>2 * 2 == 4:\n" +
+               "        x = 2\n" +
+               "    return x\n",
+               "def f(x):\n" +
+               "    if True:\n" +
+               "        x = 2\n" +
+               "    return x\n");
+    }
+
+    public void testNoSimplifyForLiteral() {
+        myFixture.configureByText("a.py",
+                                  "def f(x):\n" +
+                                  "    if <caret>False:\n" +
+                                  "        x = 2\n" +
+                                  "    return x\n");
+        assertEmpty(myFixture.filterAvailableIntentions("Replace the condition with False"));
+        assertSize(1, myFixture.filterAvailableIntentions(REMOVE_BRANCH));
+    }
+
+    private void doTest(@NotNull String fixName, @NotNull String before, @NotNull String after) {
+        myFixture.configureByText("a.py", before);
+        myFixture.launchAction(myFixture.findSingleIntention(fixName));
+        myFixture.checkResult(after);
+    }
+}
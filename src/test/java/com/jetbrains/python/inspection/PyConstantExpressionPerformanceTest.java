@@ -0,0 +1,208 @@
+package com.jetbrains.python.inspection;
+
+import com.intellij.codeInspection.InspectionManager;
+import com.intellij.codeInspection.LocalInspectionToolSession;
+import com.intellij.codeInspection.ProblemsHolder;
+import com.intellij.lang.annotation.HighlightSeverity;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Highlighting latency of the inspection on large generated files. Budgets are for a warmed-up run on
+ * a developer machine, {@link PlatformTestUtil} scales them by the speed of the machine running the test.
+ * Allocations are measured by running the inspection visitor on the test thread, so they don't depend on
+ * how highlighting passes are scheduled.
+ * Run with {@code gradlew performanceTest}, these tests are not part of {@code check}.
+ */
+public class PyConstantExpressionPerformanceTest extends LightPlatformCodeInsightFixtureTestCase {
+    private static final int IF_ELIF_PARTS = 5000;
+    private static final int DEEP_CONDITIONS = 200;
+    private static final int DEEP_TERMS = 1000;
+    private static final int CHAIN_TERMS = 20000;
+    private static final int LITERAL_CONDITIONS = 200;
+    private static final int LITERAL_DIGITS = 2000;
+    private static final int CHAIN_NAMES = 5000;
+
+    /** Allocation budget of the first inspection pass, per condition */
+    private static final long BYTES_PER_CONDITION = 64 * 1024;
+
+    private PyConstantExpression inspection;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        inspection = new PyConstantExpression();
+        myFixture.enableInspections(inspection);
+    }
+
+    public void testIfElifChain() {
+        String text = ifElifChain();
+        doTestHighlighting("if/elif chain", 3000, text);
+        doTestRehighlighting("if/elif chain after an edit", 1000, text);
+        doTestAllocations(text, IF_ELIF_PARTS);
+    }
+
+    public void testDeepArithmetic() {
+        String text = deepArithmetic();
+        doTestHighlighting("deep arithmetic", 2000, text);
+        doTestRehighlighting("deep arithmetic after an edit", 1000, text);
+        doTestAllocations(text, DEEP_CONDITIONS);
+    }
+
+    public void testDeepChain() {
+        String text = deepChain();
+        doTestHighlighting("deep chain", 2000, text);
+        myFixture.configureByText("big.py", text);
+        assertSize(1, myFixture.doHighlighting(HighlightSeverity.WARNING));
+    }
+
+    public void testLargeLiterals() {
+        String text = largeLiterals();
+        doTestHighlighting("large literals", 2000, text);
+        doTestRehighlighting("large literals after an edit", 1000, text);
+        doTestAllocations(text, LITERAL_CONDITIONS);
+    }
+
+    public void testNameChain() {
+        String text = nameChain();
+        doTestHighlighting("name chain", 2000, text);
+        myFixture.configureByText("big.py", text);
+        assertSize(1, myFixture.doHighlighting(HighlightSeverity.WARNING));
+    }
+
+    /**
+     * Full highlighting of a freshly opened file, nothing is cached on its elements.
+     */
+    private void doTestHighlighting(@NotNull String what, int expectedMs, @NotNull String text) {
+        PlatformTestUtil.startPerformanceTest(what, expectedMs, () -> myFixture.doHighlighting())
+                .setup(() -> myFixture.configureByText("big.py", text))
+                .attempts(3)
+                .assertTiming();
+    }
+
+    /**
+     * Highlighting after typing at the end of the file, which leaves all conditions in place.
+     */
+    private void doTestRehighlighting(@NotNull String what, int expectedMs, @NotNull String text) {
+        myFixture.configureByText("big.py", text + "<caret>");
+        myFixture.doHighlighting();
+        PlatformTestUtil.startPerformanceTest(what, expectedMs, () -> myFixture.doHighlighting())
+                .setup(() -> myFixture.type("\n"))
+                .attempts(3)
+                .assertTiming();
+    }
+
+    private void doTestAllocations(@NotNull String text, int conditions) {
+        PsiFile file = myFixture.configureByText("big.py", text);
+        long bytes = allocatedBytes();
+        inspect(file);
+        bytes = allocatedBytes() - bytes;
+        long budget = BYTES_PER_CONDITION * conditions;
+        assertTrue("Allocated " + bytes + " bytes, expected at most " + budget, bytes <= budget);
+    }
+
+    private void inspect(@NotNull PsiFile file) {
+        ProblemsHolder holder = new ProblemsHolder(InspectionManager.getInstance(getProject()), file, true);
+        LocalInspectionToolSession session = new LocalInspectionToolSession(file, 0, file.getTextLength());
+        inspection.inspectionStarted(session, true);
+        PsiElementVisitor visitor = inspection.buildVisitor(holder, true, session);
+        file.accept(new PsiRecursiveElementWalkingVisitor() {
+            @Override
+            public void visitElement(PsiElement element) {
+                element.accept(visitor);
+                super.visitElement(element);
+            }
+        });
+        inspection.inspectionFinished(session, holder);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Alternates conditions depending on input with constant ones, so half of them are reported.
+     */
+    @NotNull
+    private static String ifElifChain() {
+        StringBuilder text = new StringBuilder("x = int(input())\n");
+        for (int i = 0; i < IF_ELIF_PARTS; i++) {
+            text.append(i == 0 ? "if " : "elif ");
+            if (i % 2 == 0) {
+                text.append("x == ").append(i).append(" and ").append(i).append(" % 7 == ").append(i % 7);
+            } else {
+                text.append(i).append(" * ").append(i).append(" < 0");
+            }
+            text.append(":\n    pass\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * Long chains of mixed operations. Precedence splits each into a few hundred levels, so these measure
+     * throughput rather than depth.
+     */
+    @NotNull
+    private static String deepArithmetic() {
+        String[] ops = {" + ", " * ", " // ", " % "};
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < DEEP_CONDITIONS; i++) {
+            text.append("if ").append(i + 1);
+            for (int j = 0; j < DEEP_TERMS; j++) {
+                text.append(ops[j % ops.length]).append(j % ops.length == 3 ? 1_000_003 : j % 5 + 2);
+            }
+            text.append(" > ").append(i).append(":\n    pass\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * A single left-deep sum, far deeper than a recursive walk could handle.
+     */
+    @NotNull
+    private static String deepChain() {
+        StringBuilder text = new StringBuilder("if 1");
+        for (int i = 1; i < CHAIN_TERMS; i++) {
+            text.append(" + 1");
+        }
+        text.append(" == ").append(CHAIN_TERMS).append(":\n    pass\n");
+        return text.toString();
+    }
+
+    /**
+     * Each name bound from the previous one, far more than a recursive evaluation of names could handle.
+     */
+    @NotNull
+    private static String nameChain() {
+        StringBuilder text = new StringBuilder("A0 = 1\n");
+        for (int i = 1; i < CHAIN_NAMES; i++) {
+            text.append('A').append(i).append(" = A").append(i - 1).append(" + 1\n");
+        }
+        text.append("if A").append(CHAIN_NAMES - 1).append(" == ").append(CHAIN_NAMES).append(":\n    pass\n");
+        return text.toString();
+    }
+
+    /**
+     * Comparisons and arithmetic on integers of thousands of digits.
+     */
+    @NotNull
+    private static String largeLiterals() {
+        StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < LITERAL_DIGITS; i++) {
+            digits.append((char) ('1' + i % 9));
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < LITERAL_CONDITIONS; i++) {
+            text.append("if ").append(digits).append(" * ").append(i + 2).append(" - ").append(digits)
+                    .append(" > ").append(digits).append(" ** 2 // ").append(digits).append(":\n    pass\n");
+        }
+        return text.toString();
+    }
+}
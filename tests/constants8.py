@@ -0,0 +1,13 @@
+# Module-level constants imported by test8.py
+
+DEBUG = False
+LEVEL = 2 + 3
+TIMEOUT = LEVEL * 1.5
+NAME = 'app' + 'v1'
+SIGNATURE = b'\x89PNG'
+VERSION = (1, (2, 3))
+DEFAULT = None
+FLAGS = 0
+
+if LEVEL > 3:
+    FLAGS = 1
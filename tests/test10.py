@@ -0,0 +1,37 @@
+# Star imports and long chains of constants
+
+BEFORE = 1
+CHAIN0 = 1
+CHAIN1 = CHAIN0 + 1
+CHAIN2 = CHAIN1 + 1
+CHAIN3 = CHAIN2 + 1
+
+if CHAIN3 == 4:
+    # true
+    pass
+
+if BEFORE == 1:
+    # true. Not rebound yet
+    pass
+
+from os.path import *
+
+if BEFORE == 1:
+    # undefined. The star import may rebind BEFORE
+    pass
+
+AFTER = 2
+
+if AFTER == 2:
+    # true. Bound after the star import
+    pass
+
+
+def f():
+    if BEFORE == 1:
+        # undefined. The star import may rebind BEFORE before the function runs
+        pass
+
+    if AFTER == 2:
+        # true
+        pass
@@ -85,7 +85,7 @@ if 1 // 0 == 15 or -10 % (5 - 10 // 2) + 15 == 17:
 
 if (3 or -10 % 0) < 5:
     # true. Here should be no RUNTIME
-    # Warning: Taking modulo by 0
+    # No warning: the right operand of "or" is never evaluated
     pass
 
 if 1 >> -1 == 2:
@@ -133,4 +133,51 @@ if (1 < 2) + (2 > 1) == 2:
 
 if (1 < 2) + 3 == 4:
     # true
-    pass
\ No newline at end of file
+    pass
+
+if 7 ** 10 ** 8:
+    # undefined. Result is too large to be computed, no freeze here
+    # Warning only with reportBudgetExceeded: Result is too large to evaluate
+    pass
+
+if 1 << 2 ** 30:
+    # undefined. Result is too large to be computed, no freeze here
+    pass
+
+if (-1) ** 10 ** 8 == 1:
+    # true
+    pass
+
+if False and 7 ** 10 ** 8:
+    # false. The right operand is not evaluated, no freeze here
+    pass
+
+if True or 1 // 0:
+    # true. No warning: the right operand is never evaluated
+    pass
+
+if a and 1 // 0:
+    # undefined
+    # Warning: Division by 0
+    pass
+
+if 1 > 2 < 1 // 0:
+    # false. No warning: the chain stops at the first false comparison
+    pass
+
+if 1 < 2 < 3 // 0:
+    # undefined
+    # Warning: Division by 0
+    pass
+
+if -(1 < 2 < 3) == -1:
+    # true
+    pass
+
+if (1 < 3) < 2:
+    # true. Not a chain: True < 2
+    pass
+
+if 1 < 3 < 2:
+    # false
+    pass
@@ -97,8 +97,6 @@ if 10 | 12.3:
 
 if 78462 <= 2.5 ** 12.3 <= 78463:
     # true
-    # Won't work. BigDecimal can be powered only to Integer power.
-    # Need extra libraries to support BigDecimal ** BigDecimal
     pass
 
 if -1e81 < -4.5 ** 123 < -1e80:
@@ -124,4 +122,25 @@ if 1 - 1e-6 < -5.0 // -4.0 < 1 + 1e-6:
 if ~1.5:
     # undefined. no RUNTIME here
     # Warning: unsupported type
-    pass
\ No newline at end of file
+    pass
+
+if 2 ** -1 == 0.5:
+    # true
+    pass
+
+if 9223372036854775807 + 1 == 9223372036854775808:
+    # true
+    pass
+
+if -9223372036854775808 // -1 > 0:
+    # true
+    pass
+
+if 1 / 0.0 == 1:
+    # undefined. no RUNTIME here
+    # Warning: Division by 0
+    pass
+
+if (-8.0) ** 0.5:
+    # undefined. Result is complex
+    pass
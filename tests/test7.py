@@ -0,0 +1,79 @@
+# Constant propagation tests
+
+DEBUG = False
+LIMIT = 1 << 10
+HALF = LIMIT // 2
+MODE = 1
+x = int(input())
+
+if DEBUG and x:
+    # false
+    pass
+
+if HALF * 2 == LIMIT:
+    # true
+    pass
+
+if LATER:
+    # undefined. LATER is not assigned yet
+    pass
+
+LATER = True
+
+COUNTER = 0
+COUNTER += 1
+
+if COUNTER:
+    # undefined. COUNTER is rebound
+    pass
+
+for i in range(3):
+    STEP = i
+
+if STEP:
+    # undefined. STEP is assigned in a loop
+    pass
+
+BROKEN = 1 // 0
+
+if BROKEN:
+    # undefined. The assignment raises, no warning here
+    pass
+
+
+def f(flag):
+    local = 3
+    if local > 2 and LIMIT > 1000:
+        # true
+        pass
+
+    if flag:
+        # undefined. Parameter
+        pass
+
+    if LATER:
+        # true. The module is initialized when the function runs
+        pass
+
+
+def g():
+    global MODE
+    MODE = 2
+
+
+if MODE == 1:
+    # undefined. MODE is rebound in g
+    pass
+
+
+class A:
+    SIZE = 4
+
+    if SIZE == 4:
+        # true
+        pass
+
+    def m(self):
+        if SIZE == 4:
+            # undefined. Class attributes are not visible in methods
+            pass
@@ -0,0 +1,51 @@
+# Cross-file constant tests, constants come from constants8.py
+
+from constants8 import DEBUG, LEVEL, TIMEOUT, FLAGS
+from constants8 import NAME, SIGNATURE, VERSION, DEFAULT
+from constants8 import DEBUG as VERBOSE
+import constants8
+
+x = int(input())
+
+if DEBUG:
+    # false
+    pass
+
+if VERBOSE or x:
+    # undefined. x is not a constant
+    pass
+
+if LEVEL == 5 and TIMEOUT > 7:
+    # true
+    pass
+
+if NAME == 'appv1' and b'PNG' in SIGNATURE:
+    # true
+    pass
+
+if VERSION >= (1, (2, 4)):
+    # false
+    pass
+
+if DEFAULT is None:
+    # true
+    pass
+
+if FLAGS:
+    # undefined. FLAGS is rebound in constants8.py
+    pass
+
+if constants8.DEBUG:
+    # undefined. qualified references are not resolved
+    pass
+
+if UNKNOWN:
+    # undefined. UNKNOWN is not imported
+    pass
+
+
+def f():
+    from constants8 import LEVEL as local_level
+    if local_level < 0:
+        # false
+        pass
@@ -0,0 +1,92 @@
+# str, bytes, None and tuple tests
+
+ENV = "prod"
+x = input()
+
+if "prod" == "dev":
+    # false
+    pass
+
+if ENV != "dev":
+    # true
+    pass
+
+if "pr" "od" == ENV:
+    # true
+    pass
+
+if "pr" + "od" == ENV:
+    # true
+    pass
+
+if "":
+    # false
+    pass
+
+if b"abc" == b"abd":
+    # false
+    pass
+
+if b"abc" == "abc":
+    # undefined. bytes and str compare equal in Python 2
+    pass
+
+if None:
+    # false
+    pass
+
+if ENV is None:
+    # false
+    pass
+
+if None is not None:
+    # false
+    pass
+
+if "a" is "a":
+    # undefined. identity of strings is implementation-defined
+    pass
+
+if x in ():
+    # false
+    pass
+
+if x not in ():
+    # true
+    pass
+
+if 1 in ():
+    # false
+    pass
+
+if 2 in (1, 2, 3):
+    # true
+    pass
+
+if "od" not in ENV:
+    # false
+    pass
+
+if 97 in b"abc":
+    # undefined. bytes are str in Python 2, where an int in them raises
+    pass
+
+if (1, "a") == (1.0, "a"):
+    # true
+    pass
+
+if (1, 2) < (1, 2, 0):
+    # true
+    pass
+
+if "abc" < "abd":
+    # true
+    pass
+
+if 1 in 5:
+    # undefined. error: unsupported right operand type for 'in'
+    pass
+
+if f"{x}" == "prod":
+    # undefined. f-strings are not constants
+    pass